@@ -0,0 +1,84 @@
+import java.util.Collection;
+
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.Terrain;
+
+
+/**
+ * The tests every kind of hex board shares: the collection tests on the
+ * tiles used by {@link TestHexBoard}, and some spot checks.  A subclass
+ * says which board to test and adds the tests for that kind of board.
+ */
+public abstract class AbstractHexBoardTest<B extends Collection<HexTile>> extends TestCollection<HexTile> {
+
+	protected B hb;
+	
+	protected HexCoordinate h(int a, int b) { return new HexCoordinate(a,b); }
+	
+	/**
+	 * Return a new empty board of the kind being tested.
+	 */
+	protected abstract B newBoard();
+	
+	/**
+	 * Return the terrain at a location of {@link #hb}, or null if none.
+	 */
+	protected abstract Terrain terrainAt(HexCoordinate h);
+	
+	@Override
+	protected void initCollections() {
+		c = hb = newBoard();
+		e = new HexTile[]{
+				new HexTile(Terrain.INACCESSIBLE,h(0,0)),
+				new HexTile(Terrain.LAND,h(1,0)),
+				new HexTile(Terrain.WATER,h(2,0)),
+				new HexTile(Terrain.FOREST,h(3,1)),
+				new HexTile(Terrain.MOUNTAIN,h(4,2)),
+				new HexTile(Terrain.DESERT,h(5,3)),
+				new HexTile(Terrain.CITY,h(6,2)),
+				new HexTile(Terrain.LAND,h(7,1)),
+				new HexTile(Terrain.WATER,h(8,0)),
+				new HexTile(Terrain.FOREST,h(9,-1))};
+		permitNulls = false;
+		preserveOrder = false;
+		permitDuplicates = false;
+	}
+	
+	
+	/// some spot checks:
+	
+	public void testA() {
+		assertException(NullPointerException.class, () -> hb.add(null));
+	}
+	
+	public void testB() {
+		HexTile t = new HexTile(Terrain.LAND,h(0,0));
+		assertTrue(hb.add(t));
+		assertFalse(hb.add(t));
+	}
+	
+	public void testC() {
+		HexTile t = new HexTile(Terrain.LAND,h(0,0));
+		hb.add(e[0]);
+		assertTrue(hb.add(t));
+		assertEquals(1,hb.size());
+		assertTrue(hb.contains(t));
+	}
+	
+	public void testE() {
+		hb.add(e[3]);
+		hb.add(e[4]);
+		hb.add(e[5]);
+		assertEquals(Terrain.FOREST,terrainAt(h(3,1)));
+		assertNull(terrainAt(h(1,3)));
+	}
+	
+	public void testG() {
+		HexTile t = new HexTile(Terrain.CITY,h(5,3));
+		hb.add(e[5]);
+		assertFalse(hb.contains(t));
+		assertFalse(hb.remove(t));
+		assertTrue(hb.contains(e[5]));
+	}
+}
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.uwm.cs351.ConcurrentHexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestConcurrentHexBoard extends AbstractHexBoardTest<ConcurrentHexBoard> {
+
+	@Override
+	protected ConcurrentHexBoard newBoard() {
+		return new ConcurrentHexBoard();
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate h) {
+		return hb.terrainAt(h);
+	}
+	
+	@Override
+	protected void initCollections() {
+		super.initCollections();
+		failFast = false;
+	}
+	
+	public void testK() {
+		// extreme coordinates must keep their sign and order
+		hb.add(new HexTile(Terrain.CITY,h(Integer.MAX_VALUE,-1)));
+		hb.add(new HexTile(Terrain.CITY,h(Integer.MIN_VALUE,-1)));
+		hb.add(new HexTile(Terrain.CITY,h(0,Integer.MIN_VALUE)));
+		it = hb.iterator();
+		assertEquals(h(0,Integer.MIN_VALUE),it.next().getLocation());
+		assertEquals(h(Integer.MIN_VALUE,-1),it.next().getLocation());
+		assertEquals(h(Integer.MAX_VALUE,-1),it.next().getLocation());
+	}
+	
+	public void testL() {
+		for (HexTile t : e) hb.add(t);
+		List<HexTile> row = new ArrayList<>();
+		for (HexTile t : hb.tilesInRow(0)) row.add(t);
+		assertEquals(java.util.Arrays.asList(e[0],e[1],e[2],e[8]),row);
+	}
+	
+	public void testM() {
+		// iterators keep going after the board changes
+		for (HexTile t : e) hb.add(t);
+		it = hb.iterator();
+		assertEquals(e[9],it.next());
+		hb.remove(e[2]);
+		hb.add(new HexTile(Terrain.CITY,h(0,10)));
+		assertEquals(e[0],it.next());
+		assertEquals(e[1],it.next());
+		it.remove();
+		assertEquals(e[8],it.next());
+		assertEquals(9,hb.size());
+		int n = 4;
+		while (it.hasNext()) {
+			it.next();
+			++n;
+		}
+		assertEquals(10,n); // including the one removed
+	}
+	
+	public void testT() throws InterruptedException {
+		// each thread writes its own rows and reads everyone's
+		final int threads = 8, per = 5000;
+		Thread[] workers = new Thread[threads];
+		for (int i=0; i < threads; ++i) {
+			final int id = i;
+			workers[i] = new Thread(() -> {
+				for (int j=0; j < per; ++j) {
+					hb.add(new HexTile(Terrain.LAND,h(j,id)));
+					hb.terrainAt(h(j,(id+1) % threads));
+					if (j % 3 == 0) hb.remove(new HexTile(Terrain.LAND,h(j,id)));
+				}
+			});
+			workers[i].start();
+		}
+		for (Thread w : workers) w.join();
+		int expected = threads * (per - (per + 2) / 3);
+		assertEquals(expected,hb.size());
+		int n = 0;
+		for (HexTile t : hb) {
+			assertTrue(t.getLocation().a() % 3 != 0);
+			++n;
+		}
+		assertEquals(expected,n);
+		hb.clear();
+		assertEquals(0,hb.size());
+		assertTrue(hb.isEmpty());
+	}
+}
@@ -1,17 +1,45 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 import java.util.function.IntFunction;
 import java.util.function.Supplier;
 
 import junit.framework.TestCase;
 import edu.uwm.cs.util.BitUtil;
+import edu.uwm.cs351.ChunkedHexBoard;
+import edu.uwm.cs351.ConcurrentHexBoard;
+import edu.uwm.cs351.HashHexBoard;
 import edu.uwm.cs351.HexBoard;
 import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexPathFinder;
 import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.HexTileLoader;
+import edu.uwm.cs351.MappedHexBoard;
+import edu.uwm.cs351.OffHeapHexBoard;
+import edu.uwm.cs351.PackedHexBoard;
+import edu.uwm.cs351.PersistentHexBoard;
+import edu.uwm.cs351.StampedHexBoard;
 import edu.uwm.cs351.Terrain;
+import edu.uwm.cs351.TileChange;
 
 
 public class TestEfficiency extends TestCase {
@@ -32,6 +60,13 @@ public class TestEfficiency extends TestCase {
 			assertFalse("Assertions must NOT be enabled while running efficiency tests.",true);
 		}
 	}
+	
+	/**
+	 * Print a benchmark's timings, if asked for with -Defficiency.report=true.
+	 */
+	private static void report(String s) {
+		if (Boolean.getBoolean("efficiency.report")) System.out.println(s);
+	}
 
 	protected final Terrain[] terrains = Terrain.values();
 	private static final int MAX_A = 128;
@@ -115,6 +150,23 @@ public class TestEfficiency extends TestCase {
 	}
 	
 	
+	public void testHBAddAll() {
+		List<HexTile> tiles = new ArrayList<>();
+		HexBoard other = new HexBoard();
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			if ((i & 1) == 0) hb.add(makeHexTile(i));
+			else tiles.add(makeHexTile(i));
+			if (i % 3 == 0) other.add(makeHexTile(i));
+		}
+		for (int rep=0; rep < 10; ++rep) {
+			assertEquals(rep == 0,hb.addAll(tiles));
+			assertFalse(hb.addAll(other));
+		}
+		assertEquals(MAX_LENGTH,hb.size());
+		hb.clear();
+	}
+	
+	
 	protected <T> void testMiddle(Collection<T> col, IntFunction<T> maker) {
 		// this would be too slow with dynamic arrays
 		for (int i=0; i < MAX_LENGTH; ++i) {
@@ -134,12 +186,10 @@ public class TestEfficiency extends TestCase {
 		assertEquals(MAX_LENGTH-removed,col.size());
 	}
 	
-	/* this testuses removal.
 	public void testHBMiddle() {
 		testMiddle(hb,(i) -> makeHexTile(i));
 		hb.clear();
 	}
-	*/
 	
 	
 	protected <T> void testContains(Collection<T> col, IntFunction<T> maker) {
@@ -172,13 +222,680 @@ public class TestEfficiency extends TestCase {
 		assertEquals(MAX_LENGTH-samples.size(),col.size());
 	}
 	
-	// Removal not yet implemented
-	/*
 	public void testHBRemove() {
 		testRemove(hb,(i)->makeHexTile(i));
 		hb.clear();
 	}
-	*/
+	
+	protected void testAddOrder(IntFunction<HexTile> maker) {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(maker.apply(i));
+		}
+		assertEquals(MAX_LENGTH,hb.size());
+		HexBoard board = (HexBoard)hb;
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			HexTile t = maker.apply(i);
+			assertEquals(t.getTerrain(),board.terrainAt(t.getLocation()));
+		}
+	}
+	
+	protected HexTile makeSortedHexTile(int i) {
+		return new HexTile(terrains[i % terrains.length],new HexCoordinate(i % MAX_A, i / MAX_A));
+	}
+	
+	// a plain BST would degenerate into a list for these first two
+	public void testHBSorted() {
+		testAddOrder((i) -> makeSortedHexTile(i));
+		hb.clear();
+	}
+	
+	public void testHBReverseSorted() {
+		testAddOrder((i) -> makeSortedHexTile(MAX_LENGTH-1-i));
+		hb.clear();
+	}
+	
+	public void testHBReverseBits() {
+		testAddOrder((i) -> makeHexTile(i));
+		hb.clear();
+	}
+	
+	// tiles far apart in each row: iteration must not visit the gaps
+	public void testHBSparseIteration() {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(new HexTile(Terrain.WATER,new HexCoordinate((i % MAX_A) << 20, i / MAX_A)));
+		}
+		int count = 0;
+		for (HexTile t : hb) {
+			assertEquals(new HexCoordinate((count % MAX_A) << 20, count / MAX_A),t.getLocation());
+			++count;
+		}
+		assertEquals(MAX_LENGTH,count);
+		hb.clear();
+	}
+	
+	public void testPBLong() {
+		testLong(new PackedHexBoard(),(i) -> makeHexTile(i),false);
+	}
+	
+	public void testPBMiddle() {
+		testMiddle(new PackedHexBoard(),(i) -> makeHexTile(i));
+	}
+	
+	public void testPBRemove() {
+		testRemove(new PackedHexBoard(),(i)->makeHexTile(i));
+	}
+	
+	private static long usedMemory() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i=0; i < 3; ++i) System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+	
+	protected long bytesPerTile(Supplier<Collection<HexTile>> makeCol) {
+		long before = usedMemory();
+		Collection<HexTile> col = makeCol.get();
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			col.add(makeHexTile(i));
+		}
+		long after = usedMemory();
+		assertEquals(MAX_LENGTH,col.size()); // keep col alive until measured
+		return (after - before) / MAX_LENGTH;
+	}
+	
+	public void testPackedMemory() {
+		long tree = bytesPerTile(() -> new HexBoard());
+		long packed = bytesPerTile(() -> new PackedHexBoard());
+		report("Bytes per tile: HexBoard " + tree + ", PackedHexBoard " + packed);
+		assertTrue("packed board should need less than half the memory",packed*2 < tree);
+	}
+	
+	public void testHashContains() {
+		testContains(new HashHexBoard(),(i)->makeHexTile(i));
+	}
+	
+	public void testHashRemove() {
+		testRemove(new HashHexBoard(),(i)->makeHexTile(i));
+	}
+	
+	/**
+	 * Time inserts, lookups and a full iteration on the board,
+	 * returning the times in milliseconds.
+	 */
+	protected long[] timeBoard(Collection<HexTile> col, Function<HexCoordinate,Terrain> lookup) {
+		HexCoordinate[] locs = new HexCoordinate[MAX_LENGTH];
+		for (int i=0; i < MAX_LENGTH; ++i) locs[i] = makeHexTile(i).getLocation();
+		long start = System.nanoTime();
+		for (int i=0; i < MAX_LENGTH; ++i) col.add(makeHexTile(i));
+		long added = System.nanoTime();
+		for (int rep=0; rep < 5; ++rep) {
+			for (HexCoordinate h : locs) assertNotNull(lookup.apply(h));
+		}
+		long looked = System.nanoTime();
+		int count = 0;
+		for (Iterator<HexTile> it = col.iterator(); it.hasNext(); it.next()) ++count;
+		long iterated = System.nanoTime();
+		assertEquals(MAX_LENGTH,count);
+		return new long[]{(added-start)/1000000, (looked-added)/1000000, (iterated-looked)/1000000};
+	}
+	
+	public void testHashVsTree() {
+		HexBoard tree = new HexBoard();
+		HashHexBoard hash = new HashHexBoard();
+		long[] t = timeBoard(tree,tree::terrainAt);
+		long[] h = timeBoard(hash,hash::terrainAt);
+		report("HexBoard     add " + t[0] + "ms, 5x terrainAt " + t[1] + "ms, iterate " + t[2] + "ms");
+		report("HashHexBoard add " + h[0] + "ms, 5x terrainAt " + h[1] + "ms, iterate " + h[2] + "ms");
+		assertTrue("hashed lookups should be faster",h[1] * 2 < t[1]);
+	}
+	
+	// a full 1024x1024 rectangle: the case chunked boards are meant for
+	public void testChunkedFull() {
+		ChunkedHexBoard board = new ChunkedHexBoard();
+		final int side = 1024;
+		for (int b=0; b < side; ++b) {
+			for (int a=0; a < side; ++a) {
+				board.add(new HexTile(terrains[(a+b) % terrains.length],new HexCoordinate(a,b)));
+			}
+		}
+		assertEquals(side*side,board.size());
+		for (int rep=0; rep < 5; ++rep) {
+			for (int b=0; b < side; ++b) {
+				for (int a=0; a < side; ++a) {
+					assertEquals(terrains[(a+b) % terrains.length],board.terrainAt(new HexCoordinate(a,b)));
+				}
+			}
+		}
+		int i = 0;
+		for (HexTile t : board) {
+			assertEquals(new HexCoordinate(i % side, i / side),t.getLocation());
+			++i;
+		}
+		Iterator<HexTile> it = board.iterator();
+		while (it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		assertEquals(0,board.size());
+	}
+	
+	/**
+	 * Return the total number of collections and milliseconds spent
+	 * collecting so far, over all garbage collectors.
+	 */
+	private static long[] gcStats() {
+		long count = 0, time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0,gc.getCollectionCount());
+			time += Math.max(0,gc.getCollectionTime());
+		}
+		return new long[]{count,time};
+	}
+	
+	/**
+	 * Fill the board with n tiles and look them all up, returning the
+	 * collections, collection time and heap bytes this left behind.
+	 */
+	protected long[] gcWhileFilling(Collection<HexTile> col, Function<HexCoordinate,Terrain> lookup, int n) {
+		long heap = usedMemory();
+		long[] before = gcStats();
+		for (int i=0; i < n; ++i) col.add(makeHexTile(i));
+		for (int i=0; i < n; ++i) assertNotNull(lookup.apply(makeHexTile(i).getLocation()));
+		long[] after = gcStats();
+		long retained = usedMemory() - heap;
+		assertEquals(n,col.size());
+		return new long[]{after[0]-before[0], after[1]-before[1], retained};
+	}
+	
+	// run with -Doffheap.tiles=600000000 (and enough memory) to see a world
+	// much bigger than the heap; HexBoard is then skipped.
+	public void testOffHeapGC() {
+		int n = Integer.getInteger("offheap.tiles", 2*MAX_LENGTH);
+		if (n <= 4*MAX_LENGTH) {
+			HexBoard tree = new HexBoard();
+			long[] t = gcWhileFilling(tree,tree::terrainAt,n);
+			report("HexBoard        " + n + " tiles: " + t[0] + " GCs, " + t[1] + "ms in GC, " + t[2]/n + " heap bytes/tile");
+		}
+		OffHeapHexBoard board = new OffHeapHexBoard();
+		long[] o = gcWhileFilling(board,board::terrainAt,n);
+		report("OffHeapHexBoard " + n + " tiles: " + o[0] + " GCs, " + o[1] + "ms in GC, " + o[2]/n + " heap bytes/tile, " + board.offHeapBytes()/n + " off-heap bytes/tile");
+		assertTrue("off-heap board should keep tiles off the heap",o[2] < n);
+		board.release();
+	}
+	
+	public void testMapped() throws IOException {
+		for (int i=0; i < MAX_LENGTH; ++i) hb.add(makeHexTile(i));
+		Path file = Files.createTempFile("hexboard", ".hexb");
+		try {
+			MappedHexBoard.save(hb, file);
+			hb.clear();
+			long start = System.nanoTime();
+			MappedHexBoard mb = MappedHexBoard.open(file);
+			long opened = System.nanoTime();
+			for (int i=0; i < MAX_LENGTH; ++i) {
+				HexTile t = makeHexTile(i);
+				assertEquals(t.getTerrain(),mb.terrainAt(t.getLocation()));
+			}
+			long looked = System.nanoTime();
+			report("MappedHexBoard open " + (opened-start)/1000 + "us, " + MAX_LENGTH + " terrainAt " + (looked-opened)/1000000 + "ms");
+			assertTrue("opening should not read the tiles",opened - start < looked - opened);
+			assertEquals(MAX_LENGTH,mb.size());
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	public void testSnapshot() throws IOException {
+		for (int i=0; i < MAX_LENGTH; ++i) hb.add(makeSortedHexTile(i));
+		HexBoard board = (HexBoard)hb;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		long start = System.nanoTime();
+		board.writeTo(Channels.newChannel(bytes));
+		long written = System.nanoTime();
+		HexBoard copy = new HexBoard();
+		copy.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+		long read = System.nanoTime();
+		report("Snapshot " + bytes.size()/(double)MAX_LENGTH + " bytes/tile, write " + (written-start)/1000000 + "ms, read " + (read-written)/1000000 + "ms");
+		assertEquals(MAX_LENGTH,copy.size());
+		Iterator<HexTile> it = copy.iterator();
+		for (HexTile t : hb) assertEquals(t,it.next());
+		hb.clear();
+	}
+	
+	public void testLoader() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i < MAX_LENGTH; ++i) sb.append(makeHexTile(i)).append('\n');
+		String text = sb.toString();
+		
+		long start = System.nanoTime();
+		for (String line : text.split("\n")) hb.add(HexTile.fromString(line));
+		long split = System.nanoTime();
+		HexBoard loaded = new HexBoard();
+		HexTileLoader.load(Channels.newChannel(new ByteArrayInputStream(text.getBytes())),loaded);
+		long streamed = System.nanoTime();
+		long[] count = new long[1];
+		HexTileLoader.parse(Channels.newChannel(new ByteArrayInputStream(text.getBytes())),(a,b,t) -> ++count[0]);
+		long parsed = System.nanoTime();
+		report("fromString " + (split-start)/1000000 + "ms, HexTileLoader.load " + (streamed-split)/1000000 + "ms, parse only " + (parsed-streamed)/1000000 + "ms");
+		assertTrue("loader should be faster than fromString",streamed - split < split - start);
+		assertEquals(MAX_LENGTH,count[0]);
+		assertEquals(hb.size(),loaded.size());
+		hb.clear();
+	}
+	
+	// each query should only visit the 64 tiles it returns
+	public void testRect() {
+		List<HexTile> tiles = new ArrayList<>();
+		for (int i=0; i < MAX_LENGTH; ++i) tiles.add(makeSortedHexTile(i));
+		HexBoard board = new HexBoard();
+		board.addAll(tiles);
+		int rows = MAX_LENGTH / MAX_A;
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			int a = i % (MAX_A-8), b = (i * 7) % (rows-8);
+			int count = 0;
+			for (HexTile t : board.tilesInRect(a, a+7, b, b+7)) {
+				assertEquals(b + count / 8, t.getLocation().b());
+				++count;
+			}
+			assertEquals(64,count);
+		}
+	}
+	
+	// probing every cell with terrainAt versus one range scan a row
+	public void testWithin() {
+		List<HexTile> tiles = new ArrayList<>();
+		for (int i=0; i < MAX_LENGTH; i += 3) tiles.add(makeSortedHexTile(i));
+		HexBoard board = new HexBoard();
+		board.addAll(tiles);
+		int rows = MAX_LENGTH / MAX_A;
+		final int radius = 10, queries = 100000;
+		long start = System.nanoTime();
+		long probed = 0;
+		for (int i=0; i < queries; ++i) {
+			int ca = i % MAX_A, cb = (i * 7) % rows;
+			for (int db=-radius; db <= radius; ++db) {
+				for (int da=Math.max(-radius,db-radius); da <= Math.min(radius,db+radius); ++da) {
+					if (board.terrainAt(new HexCoordinate(ca+da,cb+db)) != null) ++probed;
+				}
+			}
+		}
+		long mid = System.nanoTime();
+		long visited = 0;
+		for (int i=0; i < queries; ++i) {
+			HexCoordinate center = new HexCoordinate(i % MAX_A, (i * 7) % rows);
+			visited += board.forEachWithin(center, radius, (a,b,t) -> {});
+		}
+		long end = System.nanoTime();
+		report("radius " + radius + ": terrainAt " + (mid-start)/1000000 + "ms, forEachWithin " + (end-mid)/1000000 + "ms");
+		assertTrue("forEachWithin should be faster than probing",end - mid < mid - start);
+		assertEquals(probed,visited);
+	}
+	
+	public void testNavigate() {
+		HexBoard board = new HexBoard();
+		for (int i=0; i < MAX_LENGTH; ++i) board.add(makeHexTile(i));
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			HexCoordinate h = makeHexTile(i).getLocation();
+			assertEquals(h,board.floor(h).getLocation());
+			HexTile higher = board.higher(h);
+			if (higher != null) assertEquals(h,board.lower(higher.getLocation()).getLocation());
+		}
+		for (int i=0; i < MAX_LENGTH; ++i) board.pollFirst();
+		assertTrue(board.isEmpty());
+	}
+	
+	// serving a page of tiles should not walk past the ones before it
+	public void testHBPages() {
+		HexBoard board = new HexBoard();
+		for (int i=0; i < MAX_LENGTH; ++i) board.add(makeHexTile(i));
+		for (int i=0; i < MAX_LENGTH; i += 100) {
+			HexBoard.BoardIterator it = board.iterator();
+			assertEquals(i,it.skip(i));
+			HexTile first = it.next();
+			assertEquals(first,board.get(i));
+			assertEquals(i,board.rankOf(first.getLocation()));
+		}
+	}
+	
+	// a parallel aggregate should beat a sequential one on a multicore machine
+	public void testHBParallel() {
+		HexBoard board = new HexBoard();
+		for (int i=0; i < MAX_LENGTH; ++i) board.add(makeHexTile(i));
+		long expected = 0;
+		for (int rep=0; rep < 5; ++rep) {
+			long start = System.nanoTime();
+			long sequential = board.stream().mapToLong((t) -> t.getLocation().distance(ORIGIN) + t.getTerrain().ordinal()).sum();
+			long mid = System.nanoTime();
+			long parallel = board.parallelStream().mapToLong((t) -> t.getLocation().distance(ORIGIN) + t.getTerrain().ordinal()).sum();
+			long end = System.nanoTime();
+			if (rep == 4) report("sum over " + MAX_LENGTH + " tiles: sequential " + (mid-start)/1000000 + "ms, parallel " + (end-mid)/1000000 + "ms on " + Runtime.getRuntime().availableProcessors() + " processors");
+			assertEquals(sequential,parallel);
+			if (rep > 0) assertEquals(expected,parallel);
+			expected = parallel;
+		}
+	}
+	
+	private static final HexCoordinate ORIGIN = new HexCoordinate(0,0);
+	
+	/**
+	 * Run the operation for indices 0 to ops-1 split among the threads,
+	 * and return the time taken in milliseconds.
+	 */
+	private static long timeThreads(int threads, int ops, IntConsumer op) {
+		Thread[] workers = new Thread[threads];
+		long start = System.nanoTime();
+		for (int t=0; t < threads; ++t) {
+			final int first = t;
+			workers[t] = new Thread(() -> {
+				for (int i=first; i < ops; i += threads) op.accept(i);
+			});
+			workers[t].start();
+		}
+		try {
+			for (Thread w : workers) w.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+	
+	// one write in ten, the rest lookups
+	public void testConcurrentScaling() {
+		final int ops = MAX_LENGTH;
+		HexTile[] tiles = new HexTile[ops];
+		for (int i=0; i < ops; ++i) tiles[i] = makeHexTile(i);
+		for (int threads = 1; threads <= 32; threads *= 2) {
+			ConcurrentHexBoard concurrent = new ConcurrentHexBoard();
+			long free = timeThreads(threads, ops, (i) -> {
+				if (i % 10 == 0) concurrent.add(tiles[i]);
+				else concurrent.terrainAt(tiles[i - i % 10].getLocation());
+			});
+			HexBoard board = new HexBoard();
+			long locked = timeThreads(threads, ops, (i) -> {
+				synchronized (board) {
+					if (i % 10 == 0) board.add(tiles[i]);
+					else board.terrainAt(tiles[i - i % 10].getLocation());
+				}
+			});
+			report(threads + " threads: ConcurrentHexBoard " + free + "ms, locked HexBoard " + locked + "ms");
+			assertEquals(ops / 10,concurrent.size());
+			assertEquals(board.size(),concurrent.size());
+		}
+	}
+	
+	// a snapshot every few changes, where a HexBoard would need a full copy
+	public void testPersistentSnapshots() {
+		PersistentHexBoard board = new PersistentHexBoard();
+		for (int i=0; i < MAX_LENGTH; ++i) board.add(makeHexTile(i));
+		long start = System.nanoTime();
+		List<PersistentHexBoard> snaps = new ArrayList<>();
+		for (int i=0; i < 100000; ++i) {
+			board.add(new HexTile(Terrain.CITY,makeHexTile(i).getLocation()));
+			if (i % 10 == 0) snaps.add(board.snapshot());
+		}
+		long mid = System.nanoTime();
+		HexBoard copy = null;
+		for (int i=0; i < 10; ++i) {
+			copy = new HexBoard();
+			copy.addAll(board);
+		}
+		long end = System.nanoTime();
+		report(snaps.size() + " snapshots with 100000 changes " + (mid-start)/1000000 + "ms, 10 HexBoard copies " + (end-mid)/1000000 + "ms");
+		assertTrue("snapshots should be cheaper than copies",mid - start < end - mid);
+		assertEquals(MAX_LENGTH,snaps.get(0).size());
+		assertEquals(Terrain.CITY,snaps.get(0).terrainAt(makeHexTile(0).getLocation()));
+		assertEquals(MAX_LENGTH,copy.size());
+	}
+	
+	// one write in a hundred, the rest lookups
+	public void testReadScaling() {
+		final int ops = MAX_LENGTH;
+		HexTile[] tiles = new HexTile[ops];
+		for (int i=0; i < ops; ++i) tiles[i] = makeHexTile(i);
+		StampedHexBoard stamped = new StampedHexBoard();
+		HexBoard board = new HexBoard();
+		ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+		for (int i=0; i < ops; i += 2) {
+			stamped.add(tiles[i]);
+			board.add(tiles[i]);
+		}
+		for (int threads = 1; threads <= 32; threads *= 2) {
+			long optimistic = timeThreads(threads, ops, (i) -> {
+				if (i % 100 == 0) stamped.add(tiles[i]);
+				else stamped.terrainAt(tiles[i].getLocation());
+			});
+			long locked = timeThreads(threads, ops, (i) -> {
+				if (i % 100 == 0) {
+					rw.writeLock().lock();
+					try {
+						board.add(tiles[i]);
+					} finally {
+						rw.writeLock().unlock();
+					}
+				} else {
+					rw.readLock().lock();
+					try {
+						board.terrainAt(tiles[i].getLocation());
+					} finally {
+						rw.readLock().unlock();
+					}
+				}
+			});
+			report(threads + " threads: StampedHexBoard " + optimistic + "ms, read-write locked HexBoard " + locked + "ms");
+		}
+		assertEquals(board.size(),stamped.size());
+	}
+	
+	// a turn's changes in one batch versus one add at a time;
+	// each turn's changes are near each other, as around a unit
+	public void testHBBatch() {
+		HexBoard board = new HexBoard();
+		HexBoard other = new HexBoard();
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			board.add(makeSortedHexTile(i));
+			other.add(makeSortedHexTile(i));
+		}
+		int rows = MAX_LENGTH / MAX_A;
+		List<List<HexTile>> turns = new ArrayList<>();
+		for (int turn=0; turn < 1000; ++turn) {
+			List<HexTile> changes = new ArrayList<>();
+			int b = r.nextInt(rows - 40);
+			for (int i=0; i < 1000; ++i) {
+				changes.add(new HexTile(terrains[(turn + i) % terrains.length],new HexCoordinate(r.nextInt(MAX_A + 10),b + r.nextInt(40))));
+			}
+			turns.add(changes);
+		}
+		long batchTime = 0, addTime = 0;
+		long updated = 0;
+		for (int rep=0; rep < 2; ++rep) { // the first time warms up
+			long start = System.nanoTime();
+			for (List<HexTile> changes : turns) updated += board.applyBatch(changes).updated();
+			long mid = System.nanoTime();
+			for (List<HexTile> changes : turns) {
+				for (HexTile t : changes) other.add(t);
+			}
+			long end = System.nanoTime();
+			batchTime = mid - start;
+			addTime = end - mid;
+		}
+		report("1000 turns of 1000 changes: applyBatch " + batchTime/1000000 + "ms, add " + addTime/1000000 + "ms");
+		assertTrue("applyBatch should be faster than adding",batchTime < addTime);
+		assertTrue(updated > 0);
+		assertEquals(other.size(),board.size());
+	}
+	
+	// the cost of changes with no one listening and with a subscriber
+	public void testChanges() {
+		HexTile[] tiles = new HexTile[MAX_LENGTH];
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			tiles[i] = new HexTile(terrains[r.nextInt(terrains.length)],makeHexTile(i).getLocation());
+		}
+		HexBoard quiet = new HexBoard(), listened = new HexBoard(), cancelled = new HexBoard();
+		AtomicLong seen = new AtomicLong();
+		listened.changes().subscribe(new Flow.Subscriber<TileChange>() {
+			@Override public void onSubscribe(Flow.Subscription s) { s.request(Long.MAX_VALUE); }
+			@Override public void onNext(TileChange c) { seen.incrementAndGet(); }
+			@Override public void onError(Throwable t) { }
+			@Override public void onComplete() { }
+		});
+		cancelled.changes().subscribe(new Flow.Subscriber<TileChange>() {
+			@Override public void onSubscribe(Flow.Subscription s) { s.cancel(); }
+			@Override public void onNext(TileChange c) { }
+			@Override public void onError(Throwable t) { }
+			@Override public void onComplete() { }
+		});
+		long quietTime = Long.MAX_VALUE, cancelledTime = Long.MAX_VALUE, listenedTime = Long.MAX_VALUE;
+		for (int rep=0; rep < 4; ++rep) { // best of several, since garbage collection varies
+			long start = System.nanoTime();
+			for (HexTile t : tiles) quiet.add(t);
+			long mid1 = System.nanoTime();
+			for (HexTile t : tiles) cancelled.add(t);
+			long mid2 = System.nanoTime();
+			for (HexTile t : tiles) listened.add(t);
+			long end = System.nanoTime();
+			quietTime = Math.min(quietTime, mid1 - start);
+			cancelledTime = Math.min(cancelledTime, mid2 - mid1);
+			listenedTime = Math.min(listenedTime, end - mid2);
+			quiet.clear();
+			cancelled.clear();
+			listened.clear();
+		}
+		report(MAX_LENGTH + " adds: no publisher " + quietTime/1000000 + "ms, no subscribers " + 
+				cancelledTime/1000000 + "ms, one subscriber " + listenedTime/1000000 + "ms");
+		assertTrue(seen.get() > 0);
+	}
+	
+	// counting a terrain many times a turn
+	public void testCountOf() {
+		HexBoard board = new HexBoard();
+		for (int i=0; i < MAX_LENGTH; ++i) board.add(new HexTile(terrains[i % terrains.length],makeHexTile(i).getLocation()));
+		long start = System.nanoTime();
+		long total = 0;
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			total += board.countOf(terrains[i % terrains.length]);
+			if (i % 100 == 0) board.add(new HexTile(terrains[i % terrains.length],makeHexTile(i / 100).getLocation()));
+		}
+		long mid = System.nanoTime();
+		int counted = 0;
+		for (int i=0; i < 10; ++i) {
+			for (HexTile t : board) if (t.getTerrain() == terrains[0]) ++counted;
+		}
+		long end = System.nanoTime();
+		report(MAX_LENGTH + " countOf " + (mid-start)/1000000 + "ms, 10 counts by iteration " + (end-mid)/1000000 + "ms");
+		assertTrue("countOf should beat counting by iteration",mid - start < end - mid);
+		assertTrue(total > 0);
+		assertEquals(counted,10 * board.countOf(terrains[0]));
+	}
+	
+	// a rare terrain: scanning for it versus the index, and what the index costs
+	public void testTerrainIndex() {
+		HexTile[] tiles = new HexTile[MAX_LENGTH];
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			tiles[i] = new HexTile(r.nextInt(100) == 0 ? Terrain.CITY : Terrain.LAND,makeHexTile(i).getLocation());
+		}
+		HexBoard plain = new HexBoard(), indexed = new HexBoard(true);
+		long start = System.nanoTime();
+		for (HexTile t : tiles) plain.add(t);
+		long mid = System.nanoTime();
+		for (HexTile t : tiles) indexed.add(t);
+		long end = System.nanoTime();
+		report(MAX_LENGTH + " adds: " + (mid-start)/1000000 + "ms, with terrain index " + (end-mid)/1000000 + "ms");
+		int scanned = 0, found = 0;
+		start = System.nanoTime();
+		for (int i=0; i < 10; ++i) {
+			for (HexTile t : plain) if (t.getTerrain() == Terrain.CITY) ++scanned;
+		}
+		mid = System.nanoTime();
+		for (int i=0; i < 10; ++i) {
+			for (HexTile t : indexed.tilesOf(Terrain.CITY)) if (t.getTerrain() == Terrain.CITY) ++found;
+		}
+		end = System.nanoTime();
+		report("10 passes over " + indexed.countOf(Terrain.CITY) + " cities: scanning " + (mid-start)/1000000 + "ms, tilesOf " + (end-mid)/1000000 + "ms");
+		assertTrue("indexed tilesOf should beat scanning",end - mid < mid - start);
+		assertEquals(scanned,found);
+		assertEquals(10 * plain.countOf(Terrain.CITY),found);
+	}
+	
+	// the way pathfinding was done outside the board, for comparison
+	private static int hashedPathCost(HexBoard board, HexPathFinder pf, HexCoordinate from, HexCoordinate to) {
+		Map<HexCoordinate,Integer> g = new HashMap<>();
+		PriorityQueue<Map.Entry<HexCoordinate,Integer>> open = new PriorityQueue<>((x,y) -> Integer.compare(x.getValue(),y.getValue()));
+		g.put(from,0);
+		open.add(Map.entry(from,from.distance(to)));
+		int[][] dirs = {{1,0},{1,1},{0,1},{-1,0},{-1,-1},{0,-1}};
+		while (!open.isEmpty()) {
+			HexCoordinate h = open.remove().getKey();
+			if (h.equals(to)) return g.get(h);
+			for (int[] d : dirs) {
+				HexCoordinate n = new HexCoordinate(h.a() + d[0],h.b() + d[1]);
+				Terrain t = board.terrainAt(n);
+				if (t == null || pf.costOf(t) == 0) continue;
+				int ng = g.get(h) + pf.costOf(t);
+				Integer old = g.get(n);
+				if (old == null || ng < old) {
+					g.put(n,ng);
+					open.add(Map.entry(n,ng + n.distance(to)));
+				}
+			}
+		}
+		return -1;
+	}
+	
+	// many path queries on a big board, reusing one search;
+	// run with -Dpaths.size=4096 (and a heap of 2GB or so) for 16M tiles
+	public void testPaths() {
+		int size = Integer.getInteger("paths.size", 1024);
+		HexBoard board = new HexBoard();
+		List<HexTile> row = new ArrayList<>();
+		for (int b=0; b < size; ++b) {
+			for (int a=0; a < size; ++a) {
+				int k = r.nextInt(100);
+				Terrain t = k < 15 ? Terrain.INACCESSIBLE : k < 25 ? Terrain.FOREST : k < 30 ? Terrain.WATER : Terrain.LAND;
+				row.add(new HexTile(t,new HexCoordinate(a,b)));
+			}
+			board.addAll(row);
+			row.clear();
+		}
+		Map<Terrain,Integer> costs = new EnumMap<>(Terrain.class);
+		costs.put(Terrain.LAND,1);
+		costs.put(Terrain.FOREST,2);
+		HexPathFinder pf = new HexPathFinder(board,costs);
+		HexPathFinder.Search s = pf.newSearch();
+		int queries = 5000, found = 0;
+		int[] q = new int[4 * queries];
+		for (int i=0; i < q.length; i += 4) {
+			q[i] = r.nextInt(size);
+			q[i+1] = r.nextInt(size);
+			q[i+2] = Math.max(0,Math.min(size-1,q[i] + r.nextInt(129) - 64));
+			q[i+3] = Math.max(0,Math.min(size-1,q[i+1] + r.nextInt(129) - 64));
+		}
+		for (int i=0; i < 400; i += 4) s.find(q[i],q[i+1],q[i+2],q[i+3],100000); // warm up
+		long start = System.nanoTime();
+		long expanded = 0;
+		for (int i=0; i < q.length; i += 4) {
+			if (s.find(q[i],q[i+1],q[i+2],q[i+3],100000)) ++found;
+			expanded += s.expanded();
+		}
+		long mid = System.nanoTime();
+		// compare the first 100 found with a search using hash maps and boxed queues
+		int[] cost = new int[100];
+		long ourTime = 0, hashedTime = 0;
+		for (int i=0, n=0; n < 100; i += 4) {
+			HexCoordinate from = new HexCoordinate(q[i],q[i+1]), to = new HexCoordinate(q[i+2],q[i+3]);
+			long t0 = System.nanoTime();
+			if (!s.find(from,to,100000)) continue;
+			cost[n] = s.cost();
+			long t1 = System.nanoTime();
+			assertEquals(cost[n++],hashedPathCost(board,pf,from,to));
+			long t2 = System.nanoTime();
+			ourTime += t1 - t0;
+			hashedTime += t2 - t1;
+		}
+		report(queries + " paths on " + size + "x" + size + ": " + (mid-start)/1000000 + "ms (" + 
+				found + " found, " + expanded / queries + " expanded on average); 100 found with HexPathFinder " + 
+				ourTime/1000000 + "ms, with HashMap " + hashedTime/1000000 + "ms");
+		assertTrue("HexPathFinder should beat a hashed search",ourTime * 2 < hashedTime);
+		assertTrue(found > queries / 2);
+	}
 	
 	private static final int POWER = 20;
 	
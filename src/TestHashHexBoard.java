@@ -0,0 +1,37 @@
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.HashHexBoard;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestHashHexBoard extends AbstractHexBoardTest<HashHexBoard> {
+
+	@Override
+	protected HashHexBoard newBoard() {
+		return new HashHexBoard();
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate h) {
+		return hb.terrainAt(h);
+	}
+	
+	public void testK() {
+		// these all have the same HexCoordinate.hashCode()
+		for (int i=0; i < 1000; ++i) hb.add(new HexTile(Terrain.CITY,h(i << 8,i)));
+		assertEquals(1000,hb.size());
+		for (int i=0; i < 1000; ++i) assertEquals(Terrain.CITY,hb.terrainAt(h(i << 8,i)));
+		assertNull(hb.terrainAt(h(0,1)));
+	}
+	
+	public void testL() {
+		// deleted slots are reused
+		for (int i=0; i < 100; ++i) hb.add(new HexTile(Terrain.LAND,h(i,i)));
+		for (int i=0; i < 100; i += 2) assertTrue(hb.remove(new HexTile(Terrain.LAND,h(i,i))));
+		for (int i=0; i < 100; i += 2) hb.add(new HexTile(Terrain.WATER,h(i,-i)));
+		assertEquals(100,hb.size());
+		assertEquals(Terrain.WATER,hb.terrainAt(h(98,-98)));
+		assertEquals(Terrain.LAND,hb.terrainAt(h(99,99)));
+		assertNull(hb.terrainAt(h(98,98)));
+	}
+}
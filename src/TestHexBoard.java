@@ -1,9 +1,27 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import edu.uwm.cs351.FormatException;
 import edu.uwm.cs351.HexBoard;
 import edu.uwm.cs351.HexCoordinate;
 import edu.uwm.cs351.HexTile;
 import edu.uwm.cs351.Terrain;
+import edu.uwm.cs351.TileChange;
 
 
 public class TestHexBoard extends TestCollection<HexTile> {
@@ -30,7 +48,7 @@ public class TestHexBoard extends TestCollection<HexTile> {
 		preserveOrder = false;
 		permitDuplicates = false;
 		// failFast = false;
-		hasRemove = false;
+		hasRemove = true;
 	}
 
 	
@@ -208,4 +226,794 @@ public class TestHexBoard extends TestCollection<HexTile> {
 	public void test96() {
 		
 	}
+	
+	
+	/// binary snapshots
+	
+	private HexBoard copy(HexBoard from) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		from.writeTo(Channels.newChannel(bytes));
+		HexBoard result = new HexBoard();
+		result.add(new HexTile(Terrain.CITY,h(100,100))); // should be replaced
+		result.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+		return result;
+	}
+	
+	public void testW0() throws IOException {
+		HexBoard result = copy(hb);
+		assertEquals(0,result.size());
+		assertNull(result.terrainAt(h(100,100)));
+	}
+	
+	public void testW1() throws IOException {
+		for (HexTile t : e) hb.add(t);
+		hb.add(new HexTile(Terrain.CITY,h(Integer.MIN_VALUE,Integer.MAX_VALUE)));
+		hb.add(new HexTile(Terrain.DESERT,h(Integer.MAX_VALUE,Integer.MIN_VALUE)));
+		hb.add(new HexTile(Terrain.DESERT,h(-4,0)));
+		HexBoard result = copy(hb);
+		assertEquals(hb.size(),result.size());
+		Iterator<HexTile> it1 = hb.iterator(), it2 = result.iterator();
+		while (it1.hasNext()) assertEquals(it1.next(),it2.next());
+		assertFalse(it2.hasNext());
+	}
+	
+	public void testW2() throws IOException {
+		for (int i=0; i < 1000; ++i) {
+			hb.add(new HexTile(Terrain.values()[i % 7],h(i % 37 - 18,i / 37)));
+		}
+		HexBoard result = copy(hb);
+		assertEquals(1000,result.size());
+		for (int i=0; i < 1000; ++i) {
+			assertEquals(Terrain.values()[i % 7],result.terrainAt(h(i % 37 - 18,i / 37)));
+		}
+		result.add(new HexTile(Terrain.CITY,h(-100,-100)));
+		assertEquals(1001,result.size());
+	}
+	
+	public void testW3() throws IOException {
+		hb.add(e[3]);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		hb.writeTo(Channels.newChannel(bytes));
+		byte[] data = bytes.toByteArray();
+		HexBoard result = new HexBoard();
+		result.add(e[4]);
+		try {
+			result.readFrom(Channels.newChannel(new ByteArrayInputStream(data, 0, data.length-1)));
+			assertFalse("should have noticed truncation",true);
+		} catch (FormatException ex) {
+			assertEquals(1,result.size());
+			assertTrue(result.contains(e[4]));
+		}
+	}
+	
+	private static void varint(ByteArrayOutputStream out, long v) {
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) (v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+	
+	private void assertBadSnapshot(byte[] data) throws IOException {
+		HexBoard result = new HexBoard();
+		result.add(e[4]);
+		try {
+			result.readFrom(Channels.newChannel(new ByteArrayInputStream(data)));
+			assertFalse("should have noticed bad snapshot",true);
+		} catch (FormatException ex) {
+			assertEquals(1,result.size());
+			assertTrue(result.contains(e[4]));
+		}
+	}
+	
+	public void testW4() throws IOException {
+		// <5,0> then <3,0>: the column goes back within the row
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		varint(bytes,0x48455853);
+		varint(bytes,2);
+		varint(bytes,0); // first row
+		bytes.write(Terrain.LAND.ordinal() | Terrain.CITY.ordinal() << 3);
+		bytes.write(0);
+		bytes.write(0);
+		varint(bytes,0);
+		varint(bytes,10); // zigzag 5
+		varint(bytes,0);
+		varint(bytes,-3); // step of -2
+		assertBadSnapshot(bytes.toByteArray());
+	}
+	
+	public void testW5() throws IOException {
+		// a huge count in a short snapshot
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		varint(bytes,0x48455853);
+		varint(bytes,Integer.MAX_VALUE - 8);
+		varint(bytes,0);
+		assertBadSnapshot(bytes.toByteArray());
+	}
+	
+	
+	/// bulk adding
+	
+	public void testX0() {
+		List<HexTile> tiles = new ArrayList<>();
+		for (HexTile t : e) tiles.add(t);
+		tiles.add(new HexTile(Terrain.CITY,h(3,1))); // replaces e[3]
+		assertTrue(hb.addAll(tiles));
+		assertEquals(e.length,hb.size());
+		assertEquals(Terrain.CITY,hb.terrainAt(h(3,1)));
+		assertFalse(hb.addAll(tiles));
+		assertFalse(hb.addAll(hb));
+	}
+	
+	public void testX1() {
+		hb.add(e[0]);
+		hb.add(e[4]);
+		HexBoard other = new HexBoard();
+		other.add(new HexTile(Terrain.CITY,h(0,0)));
+		other.add(e[5]);
+		other.add(e[9]);
+		assertTrue(hb.addAll(other));
+		assertEquals(4,hb.size());
+		it = hb.iterator();
+		assertEquals(e[9],it.next());
+		assertEquals(new HexTile(Terrain.CITY,h(0,0)),it.next());
+		assertEquals(e[4],it.next());
+		assertEquals(e[5],it.next());
+		assertFalse(it.hasNext());
+	}
+	
+	public void testX2() {
+		hb.add(e[0]);
+		hb.add(e[1]);
+		it = hb.iterator();
+		assertFalse(hb.addAll(Arrays.asList(e[1],e[0])));
+		assertTrue(it.hasNext()); // not stale: nothing changed
+		assertException(NullPointerException.class, () -> hb.addAll(Arrays.asList(e[2],null)));
+		assertEquals(2,hb.size());
+		assertFalse(hb.contains(e[2]));
+	}
+	
+	public void testX3() {
+		for (int i=0; i < 100; ++i) hb.add(new HexTile(Terrain.LAND,h(i,0)));
+		hb.addAll(Arrays.asList(new HexTile(Terrain.WATER,h(50,0)))); // only one: added alone
+		assertEquals(100,hb.size());
+		assertEquals(Terrain.WATER,hb.terrainAt(h(50,0)));
+		List<HexTile> tiles = new ArrayList<>();
+		for (int i=150; i >= 50; --i) tiles.add(new HexTile(Terrain.FOREST,h(i,0)));
+		assertTrue(hb.addAll(tiles));
+		assertEquals(151,hb.size());
+		int i = 0;
+		for (HexTile t : hb) {
+			assertEquals(h(i,0),t.getLocation());
+			assertEquals(i < 50 ? Terrain.LAND : Terrain.FOREST,t.getTerrain());
+			++i;
+		}
+	}
+	
+	
+	/// range queries
+	
+	private List<HexTile> list(Iterable<HexTile> tiles) {
+		List<HexTile> result = new ArrayList<>();
+		for (HexTile t : tiles) result.add(t);
+		return result;
+	}
+	
+	public void testQ0() {
+		for (HexTile t : e) hb.add(t);
+		assertEquals(Arrays.asList(e[0],e[1],e[2],e[8]),list(hb.tilesInRow(0)));
+		assertEquals(Arrays.asList(e[4],e[6]),list(hb.tilesInRow(2)));
+		assertEquals(Arrays.asList(),list(hb.tilesInRow(4)));
+		assertEquals(Arrays.asList(e[9]),list(hb.tilesInRow(-1)));
+	}
+	
+	public void testQ1() {
+		for (HexTile t : e) hb.add(t);
+		assertEquals(Arrays.asList(e[2],e[8],e[3],e[7],e[4]),list(hb.tilesInRange(h(2,0),h(4,2))));
+		assertEquals(Arrays.asList(e[2],e[8],e[3],e[7]),list(hb.tilesInRange(h(2,0),h(3,2))));
+		assertEquals(Arrays.asList(e[5]),list(hb.tilesInRange(h(5,3),h(5,3))));
+		assertEquals(Arrays.asList(),list(hb.tilesInRange(h(4,2),h(2,0))));
+		assertEquals(Arrays.asList(),list(hb.tilesInRange(h(0,4),h(10,10))));
+		assertException(NullPointerException.class, () -> hb.tilesInRange(null,h(0,0)));
+	}
+	
+	public void testQ2() {
+		for (HexTile t : e) hb.add(t);
+		assertEquals(Arrays.asList(e[1],e[2],e[3],e[4]),list(hb.tilesInRect(1,4,0,2)));
+		assertEquals(Arrays.asList(e[7],e[6],e[5]),list(hb.tilesInRect(5,9,1,3)));
+		assertEquals(Arrays.asList(),list(hb.tilesInRect(4,1,0,2)));
+		assertEquals(Arrays.asList(),list(hb.tilesInRect(10,20,-5,5)));
+		assertEquals(Arrays.asList(e[9],e[0]),list(hb.tilesInRect(Integer.MIN_VALUE,Integer.MAX_VALUE,Integer.MIN_VALUE,0)).subList(0,2));
+	}
+	
+	public void testQ3() {
+		hb.add(new HexTile(Terrain.LAND,h(Integer.MAX_VALUE,Integer.MAX_VALUE)));
+		hb.add(new HexTile(Terrain.LAND,h(Integer.MIN_VALUE,Integer.MAX_VALUE)));
+		hb.add(new HexTile(Terrain.LAND,h(0,Integer.MIN_VALUE)));
+		assertEquals(1,list(hb.tilesInRect(-1,1,Integer.MIN_VALUE,Integer.MAX_VALUE)).size());
+		assertEquals(2,list(hb.tilesInRow(Integer.MAX_VALUE)).size());
+		assertEquals(3,list(hb.tilesInRect(Integer.MIN_VALUE,Integer.MAX_VALUE,Integer.MIN_VALUE,Integer.MAX_VALUE)).size());
+	}
+	
+	public void testQ4() {
+		for (int b=0; b < 20; ++b) {
+			for (int a=0; a < 20; ++a) hb.add(new HexTile(Terrain.LAND,h(a,b)));
+		}
+		it = hb.tilesInRect(5,9,5,9).iterator();
+		while (it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		assertEquals(375,hb.size());
+		assertNull(hb.terrainAt(h(7,7)));
+		assertEquals(Terrain.LAND,hb.terrainAt(h(10,7)));
+		assertEquals(Terrain.LAND,hb.terrainAt(h(4,7)));
+		assertEquals(15,list(hb.tilesInRow(7)).size());
+	}
+	
+	public void testQ5() {
+		for (HexTile t : e) hb.add(t);
+		it = hb.tilesInRow(0).iterator();
+		it.next();
+		hb.add(new HexTile(Terrain.CITY,h(10,10)));
+		assertException(ConcurrentModificationException.class, () -> it.next());
+	}
+	
+	
+	/// hexagonal neighborhoods
+	
+	public void testR0() {
+		for (HexTile t : e) hb.add(t);
+		assertEquals(Arrays.asList(e[3]),list(hb.tilesWithin(h(3,1),0)));
+		assertEquals(Arrays.asList(e[2],e[3],e[4]),list(hb.tilesWithin(h(3,1),1)));
+		assertEquals(Arrays.asList(),list(hb.tilesWithin(h(0,5),1)));
+		assertException(IllegalArgumentException.class, () -> hb.tilesWithin(h(0,0),-1));
+		assertException(NullPointerException.class, () -> hb.tilesWithin(null,1));
+	}
+	
+	public void testR1() {
+		for (int b=-10; b <= 10; ++b) {
+			for (int a=-10; a <= 10; ++a) {
+				if ((a*7 + b*3) % 4 != 0) hb.add(new HexTile(Terrain.values()[(a+20) % 7],h(a,b)));
+			}
+		}
+		HexCoordinate center = h(2,-1);
+		for (int r=0; r <= 12; ++r) {
+			List<HexTile> expected = new ArrayList<>();
+			for (HexTile t : hb) {
+				if (t.getLocation().distance(center) <= r) expected.add(t);
+			}
+			assertEquals(expected,list(hb.tilesWithin(center,r)));
+			List<HexTile> visited = new ArrayList<>();
+			assertEquals(expected.size(),hb.forEachWithin(center,r,(a,b,t) -> visited.add(new HexTile(t,h(a,b)))));
+			assertEquals(expected,visited);
+		}
+	}
+	
+	public void testR2() {
+		hb.add(new HexTile(Terrain.LAND,h(Integer.MAX_VALUE,Integer.MAX_VALUE)));
+		hb.add(new HexTile(Terrain.LAND,h(Integer.MIN_VALUE,Integer.MIN_VALUE)));
+		hb.add(new HexTile(Terrain.LAND,h(0,0)));
+		assertEquals(1,list(hb.tilesWithin(h(Integer.MAX_VALUE-1,Integer.MAX_VALUE),2)).size());
+		assertEquals(1,hb.forEachWithin(h(Integer.MIN_VALUE,Integer.MIN_VALUE+1),1,(a,b,t) -> {}));
+		assertEquals(2,list(hb.tilesWithin(h(0,0),Integer.MAX_VALUE)).size());
+	}
+	
+	public void testR3() {
+		for (int b=0; b < 10; ++b) {
+			for (int a=0; a < 10; ++a) hb.add(new HexTile(Terrain.LAND,h(a,b)));
+		}
+		it = hb.tilesWithin(h(5,5),2).iterator();
+		while (it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		assertEquals(81,hb.size());
+		assertEquals(0,hb.forEachWithin(h(5,5),2,(a,b,t) -> {}));
+		assertException(ConcurrentModificationException.class, () -> 
+			hb.forEachWithin(h(5,5),3,(a,b,t) -> hb.add(new HexTile(Terrain.CITY,h(a,b)))));
+	}
+	
+	
+	/// navigation
+	
+	public void testN0() {
+		assertException(NoSuchElementException.class, () -> hb.first());
+		assertException(NoSuchElementException.class, () -> hb.last());
+		assertNull(hb.floor(h(0,0)));
+		assertNull(hb.ceiling(h(0,0)));
+		assertNull(hb.pollFirst());
+		assertNull(hb.pollLast());
+	}
+	
+	public void testN1() {
+		for (HexTile t : e) hb.add(t);
+		assertEquals(e[9],hb.first());
+		assertEquals(e[5],hb.last());
+		assertEquals(e[3],hb.floor(h(3,1)));
+		assertEquals(e[3],hb.ceiling(h(3,1)));
+		assertEquals(e[7],hb.higher(h(3,1)));
+		assertEquals(e[8],hb.lower(h(3,1)));
+		assertEquals(e[8],hb.floor(h(2,1)));
+		assertEquals(e[3],hb.ceiling(h(2,1)));
+		assertEquals(e[7],hb.lower(h(0,2)));
+		assertEquals(e[4],hb.higher(h(0,2)));
+		assertNull(hb.lower(h(9,-1)));
+		assertNull(hb.higher(h(5,3)));
+		assertNull(hb.floor(h(0,-2)));
+		assertNull(hb.ceiling(h(6,3)));
+	}
+	
+	public void testN2() {
+		for (HexTile t : e) hb.add(t);
+		assertEquals(e[9],hb.pollFirst());
+		assertEquals(e[5],hb.pollLast());
+		assertEquals(e[0],hb.pollFirst());
+		assertEquals(7,hb.size());
+		assertFalse(hb.contains(e[9]));
+	}
+	
+	public void testN3() {
+		for (HexTile t : e) hb.add(t);
+		assertEquals(Arrays.asList(e[9],e[0],e[1]),list(hb.headBoard(h(2,0))));
+		assertEquals(Arrays.asList(e[6],e[5]),list(hb.tailBoard(h(5,2))));
+		Collection<HexTile> sub = hb.subBoard(h(2,0),h(4,2));
+		assertEquals(Arrays.asList(e[2],e[8],e[3],e[7]),list(sub));
+		assertEquals(4,sub.size());
+		assertTrue(sub.contains(e[3]));
+		assertFalse(sub.contains(e[4]));
+		assertTrue(hb.subBoard(h(4,2),h(4,2)).isEmpty());
+		assertException(IllegalArgumentException.class, () -> hb.subBoard(h(4,2),h(3,2)));
+	}
+	
+	public void testN4() {
+		for (HexTile t : e) hb.add(t);
+		Collection<HexTile> sub = hb.subBoard(h(2,0),h(4,2));
+		hb.add(new HexTile(Terrain.CITY,h(0,1)));
+		assertEquals(5,sub.size());
+		assertTrue(sub.add(new HexTile(Terrain.CITY,h(100,0))));
+		assertTrue(hb.contains(new HexTile(Terrain.CITY,h(100,0))));
+		assertException(IllegalArgumentException.class, () -> sub.add(e[4]));
+		assertFalse(sub.remove(e[4]));
+		assertTrue(sub.remove(e[3]));
+		assertEquals(11,hb.size());
+		it = sub.iterator();
+		it.next();
+		it.remove();
+		assertFalse(hb.contains(e[2]));
+		sub.clear();
+		assertEquals(6,hb.size());
+		assertTrue(sub.isEmpty());
+		it = sub.iterator();
+		hb.add(new HexTile(Terrain.CITY,h(3,1)));
+		assertException(ConcurrentModificationException.class, () -> it.hasNext());
+	}
+	
+	
+	/// order statistics
+	
+	public void testO0() {
+		for (HexTile t : e) hb.add(t);
+		List<HexTile> all = list(hb);
+		for (int i=0; i < all.size(); ++i) {
+			assertEquals(all.get(i),hb.get(i));
+			assertEquals(i,hb.rankOf(all.get(i).getLocation()));
+		}
+		assertException(IndexOutOfBoundsException.class, () -> hb.get(10));
+		assertException(IndexOutOfBoundsException.class, () -> hb.get(-1));
+		assertEquals(0,hb.rankOf(h(0,-5)));
+		assertEquals(5,hb.rankOf(h(9,0)));
+		assertEquals(10,hb.rankOf(h(0,4)));
+	}
+	
+	public void testO1() {
+		for (int i=0; i < 1000; ++i) hb.add(new HexTile(Terrain.LAND,h(i % 37,i / 37)));
+		for (int i=0; i < 1000; i += 3) hb.remove(new HexTile(Terrain.LAND,h(i % 37,i / 37)));
+		List<HexTile> all = list(hb);
+		for (int i=0; i < all.size(); ++i) assertEquals(all.get(i),hb.get(i));
+		HexBoard.BoardIterator bi = hb.iterator();
+		assertEquals(0,bi.skip(0));
+		assertEquals(100,bi.skip(100));
+		assertEquals(all.get(100),bi.next());
+		assertEquals(all.get(101),bi.next());
+		assertEquals(50,bi.skip(50));
+		assertEquals(all.get(152),bi.next());
+		assertEquals(all.size()-153,bi.skip(1000000));
+		assertFalse(bi.hasNext());
+		assertEquals(0,bi.skip(1));
+	}
+	
+	public void testO2() {
+		for (HexTile t : e) hb.add(t);
+		HexBoard.BoardIterator bi = hb.iterator();
+		bi.next();
+		bi.skip(2);
+		assertException(IllegalStateException.class, () -> bi.remove());
+		assertEquals(e[2],bi.next());
+		bi.remove();
+		assertEquals(e[8],bi.next());
+		hb.add(new HexTile(Terrain.CITY,h(0,10)));
+		assertException(ConcurrentModificationException.class, () -> bi.skip(1));
+	}
+	
+	public void testO3() {
+		for (HexTile t : e) hb.add(t);
+		Collection<HexTile> sub = hb.subBoard(h(2,0),h(4,2));
+		assertEquals(4,sub.size());
+		assertEquals(3,hb.headBoard(h(2,0)).size());
+		assertEquals(7,hb.tailBoard(h(2,0)).size());
+		assertEquals(0,hb.subBoard(h(10,0),h(0,1)).size());
+		HexBoard.BoardIterator bi = (HexBoard.BoardIterator) sub.iterator();
+		assertEquals(2,bi.skip(2));
+		assertEquals(e[3],bi.next());
+		assertEquals(1,bi.skip(5));
+		assertFalse(bi.hasNext());
+		Iterator<HexTile> rect = hb.tilesInRect(0,5,0,2).iterator();
+		assertEquals(4,((HexBoard.BoardIterator) rect).skip(4));
+		assertEquals(e[4],rect.next());
+	}
+	
+	
+	/// spliterator
+	
+	public void testS0() {
+		for (HexTile t : e) hb.add(t);
+		Spliterator<HexTile> sp = hb.spliterator();
+		assertEquals(10,sp.getExactSizeIfKnown());
+		assertTrue(sp.hasCharacteristics(Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.SUBSIZED));
+		assertSame(HexBoard.ROW_MAJOR,sp.getComparator());
+		Spliterator<HexTile> prefix = sp.trySplit();
+		assertEquals(5,prefix.estimateSize());
+		assertEquals(5,sp.estimateSize());
+		List<HexTile> all = list(hb);
+		List<HexTile> seen = new ArrayList<>();
+		assertTrue(prefix.tryAdvance(seen::add));
+		prefix.forEachRemaining(seen::add);
+		assertFalse(prefix.tryAdvance(seen::add));
+		assertEquals(all.subList(0,5),seen);
+		sp.forEachRemaining(seen::add);
+		assertEquals(all,seen);
+	}
+	
+	public void testS1() {
+		for (int i=0; i < 10000; ++i) hb.add(new HexTile(Terrain.values()[i % 7],h(i % 100,i / 100)));
+		List<HexTile> all = list(hb);
+		assertEquals(all,hb.stream().parallel().collect(Collectors.toList()));
+		assertEquals(10000,hb.stream().parallel().filter((t) -> t.getTerrain() != null).count());
+		assertEquals(hb.stream().filter((t) -> t.getTerrain() == Terrain.CITY).count(),
+				hb.parallelStream().filter((t) -> t.getTerrain() == Terrain.CITY).count());
+	}
+	
+	public void testS2() {
+		hb.add(e[0]);
+		Spliterator<HexTile> sp = hb.spliterator(); // binds late
+		hb.add(e[1]);
+		assertEquals(2,sp.estimateSize());
+		sp.tryAdvance((t) -> {});
+		hb.add(e[2]);
+		assertException(ConcurrentModificationException.class, () -> sp.tryAdvance((t) -> {}));
+		hb.clear();
+		hb.add(e[0]);
+		assertNull(hb.spliterator().trySplit());
+	}
+	
+	
+	/// batches
+	
+	public void testY0() {
+		for (HexTile t : e) hb.add(t);
+		HexBoard.BatchResult r = hb.applyBatch(Arrays.asList(
+				new HexTile(Terrain.CITY,h(3,1)), e[4], new HexTile(Terrain.CITY,h(10,10)),
+				new HexTile(Terrain.LAND,h(10,10)), new HexTile(Terrain.LAND,h(0,0))));
+		assertEquals(1,r.inserted());
+		assertEquals(2,r.updated());
+		assertTrue(r.changed());
+		assertEquals(11,hb.size());
+		assertEquals(Terrain.LAND,hb.terrainAt(h(10,10)));
+		assertEquals(Terrain.CITY,hb.terrainAt(h(3,1)));
+		assertFalse(hb.applyBatch(Arrays.asList(e[4],e[5])).changed());
+		assertFalse(hb.applyBatch(hb).changed());
+	}
+	
+	public void testY1() {
+		// few tiles for a big board are added in place
+		for (int i=0; i < 1000; ++i) hb.add(new HexTile(Terrain.LAND,h(i % 40,i / 40)));
+		it = hb.iterator();
+		List<HexTile> batch = new ArrayList<>();
+		for (int i=0; i < 20; ++i) batch.add(new HexTile(Terrain.WATER,h(35 + i,i)));
+		HexBoard.BatchResult r = hb.applyBatch(batch);
+		assertEquals(15,r.inserted());
+		assertEquals(5,r.updated());
+		assertEquals(1015,hb.size());
+		assertEquals(Terrain.WATER,hb.terrainAt(h(39,4)));
+		assertEquals(Terrain.WATER,hb.terrainAt(h(54,19)));
+		assertException(ConcurrentModificationException.class, () -> it.hasNext());
+		it = hb.iterator();
+		assertFalse(hb.applyBatch(batch).changed());
+		assertTrue(it.hasNext());
+	}
+	
+	public void testY2() {
+		hb.add(e[0]);
+		assertException(NullPointerException.class, () -> hb.applyBatch(Arrays.asList(e[1],null)));
+		assertEquals(1,hb.size());
+		assertEquals("1 inserted, 0 updated",hb.applyBatch(Arrays.asList(e[1])).toString());
+	}
+	
+	/**
+	 * Records what it is sent, having requested some number at first.
+	 */
+	private static class Recorder implements Flow.Subscriber<TileChange> {
+		final List<TileChange> changes = new ArrayList<>();
+		final long initial;
+		Flow.Subscription subscription;
+		Throwable error;
+		Recorder(long initial) { this.initial = initial; }
+		@Override public void onSubscribe(Flow.Subscription s) { subscription = s; if (initial > 0) s.request(initial); }
+		@Override public void onNext(TileChange c) { changes.add(c); }
+		@Override public void onError(Throwable t) { error = t; }
+		@Override public void onComplete() { }
+	}
+	
+	private static TileChange tc(HexCoordinate h, Terrain from, Terrain to) {
+		return new TileChange(h,from,to);
+	}
+	
+	public void testZ0() {
+		Recorder r = new Recorder(Long.MAX_VALUE);
+		hb.changes(Runnable::run,16).subscribe(r);
+		hb.add(e[0]);
+		hb.add(e[0]);
+		hb.add(new HexTile(Terrain.CITY,e[0].getLocation()));
+		hb.remove(new HexTile(Terrain.CITY,e[0].getLocation()));
+		assertEquals(Arrays.asList(tc(h(0,0),null,Terrain.INACCESSIBLE),
+				tc(h(0,0),Terrain.INACCESSIBLE,Terrain.CITY),
+				tc(h(0,0),Terrain.CITY,null)), r.changes);
+		assertNull(r.error);
+	}
+	
+	public void testZ1() {
+		// changes wait until requested, merged by location
+		Recorder r = new Recorder(0);
+		hb.changes(Runnable::run,16).subscribe(r);
+		hb.add(e[0]);
+		hb.add(e[1]);
+		hb.add(new HexTile(Terrain.CITY,e[0].getLocation()));
+		hb.add(new HexTile(Terrain.FOREST,e[0].getLocation()));
+		hb.add(e[2]);
+		hb.remove(e[2]);
+		assertEquals(0,r.changes.size());
+		r.subscription.request(1);
+		assertEquals(Arrays.asList(tc(h(0,0),null,Terrain.FOREST)), r.changes);
+		hb.add(e[0]);
+		r.subscription.request(5);
+		assertEquals(Arrays.asList(tc(h(0,0),null,Terrain.FOREST),
+				tc(h(1,0),null,Terrain.LAND),
+				tc(h(0,0),Terrain.FOREST,Terrain.INACCESSIBLE)), r.changes);
+	}
+	
+	public void testZ2() {
+		// a subscriber too far behind gets a reset
+		Recorder r = new Recorder(0);
+		hb.changes(Runnable::run,3).subscribe(r);
+		for (int i=0; i < 5; ++i) hb.add(e[i]);
+		r.subscription.request(10);
+		assertEquals(Arrays.asList(TileChange.reset()), r.changes);
+		hb.add(e[5]);
+		assertEquals(Arrays.asList(TileChange.reset(),tc(h(5,3),null,Terrain.DESERT)), r.changes);
+		assertTrue(r.changes.get(0).isReset());
+		assertNull(r.changes.get(0).getLocation());
+	}
+	
+	public void testZ3() {
+		for (int i=0; i < 4; ++i) hb.add(e[i]);
+		Recorder small = new Recorder(10), big = new Recorder(10);
+		hb.changes(Runnable::run,3).subscribe(small);
+		hb.changes(Runnable::run,10).subscribe(big);
+		hb.clear();
+		assertEquals(Arrays.asList(TileChange.reset()), small.changes);
+		assertEquals(4,big.changes.size());
+		assertEquals(tc(h(0,0),Terrain.INACCESSIBLE,null),big.changes.get(0));
+		for (TileChange c : big.changes) assertNull(c.getNewTerrain());
+		hb.clear();
+		assertEquals(4,big.changes.size());
+	}
+	
+	public void testZ4() {
+		// batches, polls, iterator removal and cancelling
+		for (int i=0; i < 3; ++i) hb.add(e[i]);
+		Recorder r = new Recorder(Long.MAX_VALUE);
+		hb.changes(Runnable::run,16).subscribe(r);
+		hb.addAll(Arrays.asList(new HexTile(Terrain.CITY,h(0,0)),e[1],e[3]));
+		assertEquals(Arrays.asList(tc(h(0,0),Terrain.INACCESSIBLE,Terrain.CITY),tc(h(3,1),null,Terrain.FOREST)), r.changes);
+		hb.pollFirst();
+		it = hb.iterator();
+		it.next();
+		it.remove();
+		assertEquals(tc(h(0,0),Terrain.CITY,null),r.changes.get(2));
+		assertEquals(tc(h(1,0),Terrain.LAND,null),r.changes.get(3));
+		r.subscription.cancel();
+		hb.clear();
+		assertEquals(4,r.changes.size());
+	}
+	
+	public void testZ5() throws InterruptedException {
+		// the default publisher delivers on another thread
+		CountDownLatch done = new CountDownLatch(2);
+		List<TileChange> seen = new ArrayList<>();
+		hb.changes().subscribe(new Flow.Subscriber<TileChange>() {
+			@Override public void onSubscribe(Flow.Subscription s) { s.request(2); }
+			@Override public void onNext(TileChange c) { synchronized (seen) { seen.add(c); } done.countDown(); }
+			@Override public void onError(Throwable t) { }
+			@Override public void onComplete() { }
+		});
+		hb.add(e[0]);
+		hb.add(e[1]);
+		assertTrue(done.await(10,TimeUnit.SECONDS));
+		synchronized (seen) {
+			assertEquals(Arrays.asList(tc(h(0,0),null,Terrain.INACCESSIBLE),tc(h(1,0),null,Terrain.LAND)), seen);
+		}
+	}
+	
+	public void testZ6() {
+		Recorder r = new Recorder(0);
+		hb.changes(Runnable::run,4).subscribe(r);
+		r.subscription.request(0);
+		assertTrue(r.error instanceof IllegalArgumentException);
+		hb.add(e[0]);
+		assertEquals(0,r.changes.size());
+		assertException(IllegalArgumentException.class, () -> hb.changes(Runnable::run,0));
+		assertException(NullPointerException.class, () -> hb.changes().subscribe(null));
+	}
+	
+	public void testZ7() {
+		// a bad request made during onNext is signalled after it returns
+		final boolean[] overlapped = new boolean[1];
+		Recorder r = new Recorder(Long.MAX_VALUE) {
+			private boolean inNext;
+			@Override public void onNext(TileChange c) {
+				inNext = true;
+				super.onNext(c);
+				subscription.request(-1);
+				inNext = false;
+			}
+			@Override public void onError(Throwable t) {
+				overlapped[0] = inNext;
+				super.onError(t);
+			}
+		};
+		hb.changes(Runnable::run,4).subscribe(r);
+		hb.add(e[0]);
+		assertTrue(r.error instanceof IllegalArgumentException);
+		assertFalse(overlapped[0]);
+		hb.add(e[1]);
+		assertEquals(1,r.changes.size());
+		assertException(NullPointerException.class, () -> new TileChange(null,Terrain.LAND,null));
+	}
+	
+	public void testC0() {
+		assertEquals(0,hb.countOf(Terrain.LAND));
+		for (HexTile t : e) hb.add(t);
+		assertEquals(2,hb.countOf(Terrain.LAND));
+		assertEquals(1,hb.countOf(Terrain.CITY));
+		hb.add(new HexTile(Terrain.CITY,h(1,0)));
+		assertEquals(1,hb.countOf(Terrain.LAND));
+		assertEquals(2,hb.countOf(Terrain.CITY));
+		hb.remove(e[7]);
+		assertEquals(0,hb.countOf(Terrain.LAND));
+		assertEquals(2,hb.countOf(Terrain.FOREST));
+		hb.pollFirst();
+		assertEquals(1,hb.countOf(Terrain.FOREST));
+		assertException(NullPointerException.class, () -> hb.countOf(null));
+	}
+	
+	public void testC1() {
+		for (HexTile t : e) hb.add(t);
+		Map<Terrain,Integer> m = hb.terrainHistogram();
+		assertEquals(Terrain.values().length,m.size());
+		int total = 0;
+		for (Terrain t : Terrain.values()) {
+			assertEquals(hb.countOf(t),m.get(t).intValue());
+			total += m.get(t);
+		}
+		assertEquals(hb.size(),total);
+		assertEquals(2,m.get(Terrain.WATER).intValue());
+		hb.clear();
+		assertEquals(2,m.get(Terrain.WATER).intValue());
+		for (int c : hb.terrainHistogram().values()) assertEquals(0,c);
+	}
+	
+	public void testC2() {
+		// batches, whether added in place or rebuilt
+		hb.addAll(Arrays.asList(e));
+		assertEquals(2,hb.countOf(Terrain.FOREST));
+		List<HexTile> batch = new ArrayList<>();
+		for (int i=0; i < 100; ++i) batch.add(new HexTile(Terrain.DESERT,h(i,20)));
+		batch.add(new HexTile(Terrain.DESERT,h(3,1)));
+		hb.addAll(batch);
+		assertEquals(1,hb.countOf(Terrain.FOREST));
+		assertEquals(102,hb.countOf(Terrain.DESERT));
+		hb.addAll(Arrays.asList(new HexTile(Terrain.CITY,h(0,20))));
+		assertEquals(101,hb.countOf(Terrain.DESERT));
+		assertEquals(2,hb.countOf(Terrain.CITY));
+	}
+	
+	public void testI0() {
+		HexBoard ib = new HexBoard(true);
+		assertTrue(ib.isTerrainIndexed());
+		assertFalse(hb.isTerrainIndexed());
+		for (HexTile t : e) ib.add(t);
+		assertEquals(Arrays.asList(e[9],e[3]),list(ib.tilesOf(Terrain.FOREST)));
+		assertEquals(Arrays.asList(e[2],e[8]),list(ib.tilesOf(Terrain.WATER)));
+		ib.add(new HexTile(Terrain.WATER,h(3,1)));
+		ib.remove(e[2]);
+		assertEquals(Arrays.asList(e[8],new HexTile(Terrain.WATER,h(3,1))),list(ib.tilesOf(Terrain.WATER)));
+		assertEquals(Arrays.asList(e[9]),list(ib.tilesOf(Terrain.FOREST)));
+		ib.clear();
+		assertFalse(ib.tilesOf(Terrain.WATER).iterator().hasNext());
+		ib.add(e[4]);
+		assertEquals(Arrays.asList(e[4]),list(ib.tilesOf(Terrain.MOUNTAIN)));
+	}
+	
+	public void testI1() {
+		HexBoard ib = new HexBoard(true);
+		for (int i=0; i < 20; ++i) {
+			for (int j=0; j < 20; ++j) ib.add(new HexTile((i+j) % 5 == 0 ? Terrain.CITY : Terrain.LAND,h(i,j)));
+		}
+		assertEquals(80,list(ib.tilesOf(Terrain.CITY)).size());
+		// rows 2 and 3, and the end of row 1 and start of row 4
+		List<HexTile> l = list(ib.tilesOf(Terrain.CITY,h(10,1),h(5,4)));
+		assertEquals(Arrays.asList(new HexTile(Terrain.CITY,h(14,1)),new HexTile(Terrain.CITY,h(19,1)),
+				new HexTile(Terrain.CITY,h(3,2)),new HexTile(Terrain.CITY,h(8,2)),new HexTile(Terrain.CITY,h(13,2)),new HexTile(Terrain.CITY,h(18,2)),
+				new HexTile(Terrain.CITY,h(2,3)),new HexTile(Terrain.CITY,h(7,3)),new HexTile(Terrain.CITY,h(12,3)),new HexTile(Terrain.CITY,h(17,3)),
+				new HexTile(Terrain.CITY,h(1,4))),l);
+		assertEquals(Arrays.asList(new HexTile(Terrain.CITY,h(1,4))),list(ib.tilesOf(Terrain.CITY,h(1,4),h(1,4))));
+		assertEquals(0,list(ib.tilesOf(Terrain.CITY,h(5,4),h(10,1))).size());
+		assertEquals(0,list(ib.tilesOf(Terrain.DESERT,h(0,0),h(19,19))).size());
+	}
+	
+	public void testI2() {
+		// batches, both in place and rebuilt, and snapshots
+		HexBoard ib = new HexBoard(true);
+		ib.addAll(Arrays.asList(e));
+		List<HexTile> batch = new ArrayList<>();
+		for (int i=0; i < 100; ++i) batch.add(new HexTile(Terrain.DESERT,h(i,20)));
+		batch.add(new HexTile(Terrain.DESERT,h(3,1)));
+		ib.addAll(batch);
+		assertEquals(102,list(ib.tilesOf(Terrain.DESERT)).size());
+		assertEquals(Arrays.asList(e[9]),list(ib.tilesOf(Terrain.FOREST)));
+		ib.addAll(Arrays.asList(new HexTile(Terrain.FOREST,h(0,20))));
+		assertEquals(Arrays.asList(e[9],new HexTile(Terrain.FOREST,h(0,20))),list(ib.tilesOf(Terrain.FOREST)));
+		ib.pollLast();
+		assertEquals(100,list(ib.tilesOf(Terrain.DESERT)).size());
+	}
+	
+	public void testI3() throws IOException {
+		HexBoard ib = new HexBoard(true);
+		for (HexTile t : e) hb.add(t);
+		ib.add(new HexTile(Terrain.CITY,h(100,100)));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		hb.writeTo(Channels.newChannel(bytes));
+		ib.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(Arrays.asList(e[6]),list(ib.tilesOf(Terrain.CITY)));
+		assertEquals(Arrays.asList(e[1],e[7]),list(ib.tilesOf(Terrain.LAND)));
+	}
+	
+	public void testI4() {
+		HexBoard ib = new HexBoard(true);
+		for (HexTile t : e) ib.add(t);
+		it = ib.tilesOf(Terrain.LAND).iterator();
+		assertEquals(e[1],it.next());
+		it.remove();
+		assertException(IllegalStateException.class, () -> it.remove());
+		assertEquals(e[7],it.next());
+		assertFalse(it.hasNext());
+		assertEquals(9,ib.size());
+		assertNull(ib.terrainAt(h(1,0)));
+		it = ib.tilesOf(Terrain.WATER).iterator();
+		ib.add(e[1]);
+		assertException(ConcurrentModificationException.class, () -> it.hasNext());
+		assertException(IllegalStateException.class, () -> hb.tilesOf(Terrain.LAND));
+		assertException(NullPointerException.class, () -> ib.tilesOf(null));
+	}
 }
@@ -0,0 +1,235 @@
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexPathFinder;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestHexPathFinder extends TestCase {
+
+	private HexBoard hb;
+
+	protected HexCoordinate h(int a, int b) { return new HexCoordinate(a,b); }
+
+	@Override
+	protected void setUp() {
+		hb = new HexBoard();
+	}
+
+	private void fill(int size, Terrain t) {
+		for (int a=0; a < size; ++a) {
+			for (int b=0; b < size; ++b) hb.add(new HexTile(t,h(a,b)));
+		}
+	}
+
+	/**
+	 * Check that the path goes between neighbors over tiles that can
+	 * be entered, and return its cost.
+	 */
+	private int checkPath(HexPathFinder pf, List<HexCoordinate> path) {
+		int cost = 0;
+		for (int i=1; i < path.size(); ++i) {
+			assertEquals(1,path.get(i-1).distance(path.get(i)));
+			Terrain t = hb.terrainAt(path.get(i));
+			assertNotNull(t);
+			assertTrue(pf.costOf(t) > 0);
+			cost += pf.costOf(t);
+		}
+		return cost;
+	}
+
+	/**
+	 * The cheapest cost by Dijkstra's algorithm, or -1 if no path.
+	 */
+	private int dijkstra(HexPathFinder pf, HexCoordinate from, HexCoordinate to) {
+		Map<HexCoordinate,Integer> dist = new HashMap<>();
+		PriorityQueue<Object[]> pq = new PriorityQueue<>((x,y) -> Integer.compare((Integer)x[0],(Integer)y[0]));
+		dist.put(from,0);
+		pq.add(new Object[]{0,from});
+		int[][] dirs = {{1,0},{1,1},{0,1},{-1,0},{-1,-1},{0,-1}};
+		while (!pq.isEmpty()) {
+			Object[] top = pq.remove();
+			int d = (Integer)top[0];
+			HexCoordinate h = (HexCoordinate)top[1];
+			if (d > dist.get(h)) continue;
+			if (h.equals(to)) return d;
+			for (int[] dir : dirs) {
+				HexCoordinate n = h(h.a()+dir[0],h.b()+dir[1]);
+				Terrain t = hb.terrainAt(n);
+				if (t == null || pf.costOf(t) == 0) continue;
+				int nd = d + pf.costOf(t);
+				Integer old = dist.get(n);
+				if (old == null || nd < old) {
+					dist.put(n,nd);
+					pq.add(new Object[]{nd,n});
+				}
+			}
+		}
+		return -1;
+	}
+
+	public void test0() {
+		fill(10,Terrain.LAND);
+		HexPathFinder pf = new HexPathFinder(hb);
+		List<HexCoordinate> path = pf.findPath(h(0,0),h(9,4));
+		assertEquals(h(0,0),path.get(0));
+		assertEquals(h(9,4),path.get(path.size()-1));
+		assertEquals(10,path.size());
+		assertEquals(9,checkPath(pf,path));
+	}
+
+	public void test1() {
+		fill(10,Terrain.LAND);
+		HexPathFinder pf = new HexPathFinder(hb);
+		HexPathFinder.Search s = pf.newSearch();
+		assertTrue(s.find(h(3,3),h(3,3)));
+		assertEquals(1,s.length());
+		assertEquals(0,s.cost());
+		assertEquals(3,s.a(0));
+		assertEquals(3,s.b(0));
+		try {
+			s.a(1);
+			fail("should have thrown");
+		} catch (IndexOutOfBoundsException ex) {
+			// expected
+		}
+	}
+
+	public void test2() {
+		// a wall with a gap at the top
+		fill(10,Terrain.LAND);
+		for (int b=0; b < 9; ++b) hb.add(new HexTile(Terrain.INACCESSIBLE,h(5,b)));
+		HexPathFinder pf = new HexPathFinder(hb);
+		HexPathFinder.Search s = pf.newSearch();
+		assertTrue(s.find(h(4,0),h(6,0)));
+		List<HexCoordinate> path = s.path();
+		assertEquals(s.cost(),checkPath(pf,path));
+		assertEquals(dijkstra(pf,h(4,0),h(6,0)),s.cost());
+		assertTrue(path.contains(h(5,9)));
+		assertEquals(s.length(),path.size());
+	}
+
+	public void test3() {
+		// closing the gap
+		fill(10,Terrain.LAND);
+		for (int b=0; b < 10; ++b) hb.add(new HexTile(Terrain.INACCESSIBLE,h(5,b)));
+		HexPathFinder pf = new HexPathFinder(hb);
+		HexPathFinder.Search s = pf.newSearch();
+		assertFalse(s.find(h(4,0),h(6,0)));
+		assertEquals(-1,s.cost());
+		assertEquals(0,s.length());
+		assertEquals(0,s.path().size());
+		assertNull(pf.findPath(h(4,0),h(6,0)));
+		// no tile, or a tile that cannot be entered, at the goal
+		assertFalse(s.find(h(0,0),h(20,20)));
+		assertFalse(s.find(h(0,0),h(5,5)));
+		assertTrue(s.find(h(0,0),h(4,9)));
+	}
+
+	public void test4() {
+		// costs steer the path round the mountains
+		fill(10,Terrain.LAND);
+		for (int b=1; b < 10; ++b) hb.add(new HexTile(Terrain.MOUNTAIN,h(5,b)));
+		Map<Terrain,Integer> costs = new EnumMap<>(Terrain.class);
+		costs.put(Terrain.LAND,1);
+		costs.put(Terrain.MOUNTAIN,20);
+		costs.put(Terrain.INACCESSIBLE,1);
+		HexPathFinder pf = new HexPathFinder(hb,costs);
+		assertEquals(0,pf.costOf(Terrain.INACCESSIBLE));
+		assertEquals(0,pf.costOf(Terrain.WATER));
+		assertEquals(20,pf.costOf(Terrain.MOUNTAIN));
+		HexPathFinder.Search s = pf.newSearch();
+		assertTrue(s.find(h(4,5),h(6,5)));
+		assertEquals(dijkstra(pf,h(4,5),h(6,5)),s.cost());
+		assertEquals(11,s.cost());
+		assertTrue(s.path().contains(h(5,0)));
+		costs.put(Terrain.MOUNTAIN,2);
+		pf = new HexPathFinder(hb,costs);
+		s = pf.newSearch();
+		s.find(h(4,5),h(6,5));
+		assertEquals(3,s.cost());
+	}
+
+	public void test5() {
+		Map<Terrain,Integer> costs = new EnumMap<>(Terrain.class);
+		costs.put(Terrain.LAND,0);
+		try {
+			new HexPathFinder(hb,costs);
+			fail("should have thrown");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+		HexPathFinder pf = new HexPathFinder(hb);
+		try {
+			pf.newSearch().find(h(0,0),h(1,1),-1);
+			fail("should have thrown");
+		} catch (IllegalArgumentException ex) {
+			// expected
+		}
+		try {
+			pf.newSearch().find(null,h(1,1));
+			fail("should have thrown");
+		} catch (NullPointerException ex) {
+			// expected
+		}
+	}
+
+	public void test6() {
+		// giving up
+		fill(30,Terrain.LAND);
+		HexPathFinder.Search s = new HexPathFinder(hb).newSearch();
+		assertFalse(s.find(h(0,0),h(29,0),5));
+		assertEquals(5,s.expanded());
+		assertFalse(s.find(h(0,0),h(29,0),0));
+		assertTrue(s.find(h(0,0),h(29,0),1000));
+		assertEquals(29,s.cost());
+		assertTrue(s.expanded() < 100);
+	}
+
+	public void test7() {
+		// random boards and costs, checked against Dijkstra, reusing one search
+		Random r = new Random(351);
+		Terrain[] all = Terrain.values();
+		for (int board=0; board < 20; ++board) {
+			hb = new HexBoard();
+			for (int a=0; a < 25; ++a) {
+				for (int b=0; b < 25; ++b) {
+					if (r.nextInt(10) > 0) hb.add(new HexTile(all[r.nextInt(all.length)],h(a,b)));
+				}
+			}
+			Map<Terrain,Integer> costs = new EnumMap<>(Terrain.class);
+			for (Terrain t : all) if (r.nextInt(5) > 0) costs.put(t,1 + r.nextInt(5));
+			HexPathFinder pf = new HexPathFinder(hb,costs);
+			HexPathFinder.Search s = pf.newSearch();
+			for (int q=0; q < 20; ++q) {
+				HexCoordinate from = h(r.nextInt(25),r.nextInt(25)), to = h(r.nextInt(25),r.nextInt(25));
+				int expected = dijkstra(pf,from,to);
+				Terrain goal = hb.terrainAt(to);
+				if (!from.equals(to) && (goal == null || pf.costOf(goal) == 0)) expected = -1;
+				assertEquals(expected >= 0,s.find(from,to));
+				assertEquals(expected,s.cost());
+				if (expected >= 0) assertEquals(expected,checkPath(pf,s.path()));
+			}
+		}
+	}
+
+	public void test8() {
+		// searches that grow the arrays, then a small one
+		fill(100,Terrain.LAND);
+		HexPathFinder.Search s = new HexPathFinder(hb).newSearch();
+		assertTrue(s.find(h(0,99),h(99,0)));
+		assertEquals(198,s.cost());
+		assertEquals(199,s.length());
+		assertTrue(s.find(h(1,1),h(2,2)));
+		assertEquals(1,s.cost());
+		assertEquals(2,s.length());
+	}
+}
@@ -0,0 +1,88 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+import edu.uwm.cs351.FormatException;
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.HexTileLoader;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestHexTileLoader extends TestCase {
+
+	private HexBoard hb;
+	
+	protected HexCoordinate h(int a, int b) { return new HexCoordinate(a,b); }
+	
+	private static ReadableByteChannel in(String s) {
+		return Channels.newChannel(new ByteArrayInputStream(s.getBytes()));
+	}
+	
+	@Override
+	protected void setUp() {
+		hb = new HexBoard();
+	}
+	
+	protected void assertError(String expectedStart, String input) throws IOException {
+		try {
+			HexTileLoader.load(in(input), hb);
+			assertFalse("Should have thrown an exception",true);
+		} catch (FormatException ex) {
+			assertTrue("Wrong message: " + ex.getMessage(),ex.getMessage().startsWith(expectedStart));
+		}
+	}
+	
+	public void test0() throws IOException {
+		assertEquals(0,HexTileLoader.load(in(""),hb));
+		assertEquals(0,HexTileLoader.load(in(" \n\n "),hb));
+		assertEquals(0,hb.size());
+	}
+	
+	public void test1() throws IOException {
+		assertEquals(1,HexTileLoader.load(in("CITY<3,1,2>"),hb));
+		assertEquals(Terrain.CITY,hb.terrainAt(h(3,1)));
+	}
+	
+	public void test2() throws IOException {
+		HexBoard expected = new HexBoard();
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i < 500; ++i) {
+			HexTile t = new HexTile(Terrain.values()[i % 7],h(i*7919 % 201 - 100,-i));
+			expected.add(t);
+			sb.append(t).append(i % 3 == 0 ? "\r\n" : "\n");
+		}
+		assertEquals(500,HexTileLoader.load(in(sb.toString()),hb));
+		assertEquals(expected.size(),hb.size());
+		Iterator<HexTile> it = hb.iterator();
+		for (HexTile t : expected) assertEquals(t,it.next());
+	}
+	
+	public void test3() throws IOException {
+		HexTileLoader.load(in("LAND<2147483647,-2147483648,-1>\nWATER<-2147483648,0,-2147483648>"),hb);
+		assertEquals(Terrain.LAND,hb.terrainAt(h(Integer.MAX_VALUE,Integer.MIN_VALUE)));
+		assertEquals(Terrain.WATER,hb.terrainAt(h(Integer.MIN_VALUE,0)));
+	}
+	
+	public void test4() throws IOException {
+		assertError("line 1: No terrain named 'SWAMP'","SWAMP<1,1,0>");
+		assertError("line 3: No terrain named 'land'","CITY<1,1,0>\n\nland<1,1,0>");
+		assertError("line 2: Not in format","CITY<1,1,0>\nCITY<1,1>");
+		assertError("line 2: Not in format","CITY<1,1,0>\nCITY<1,,0>");
+		assertError("line 1: Not in format","CITY");
+		assertError("line 1: Not in format","CITY<1,1,0");
+		assertError("line 2: c coordinate","CITY<1,1,0>\nCITY<1,1,1>");
+		assertError("line 1: Number too large","CITY<1,99999999999,0>");
+		assertEquals(1,hb.size()); // tiles before the error are added
+	}
+	
+	public void test5() throws IOException {
+		long[] sum = new long[1];
+		assertEquals(3,HexTileLoader.parse(in("CITY<1,1,0> LAND<2,1,1>\tDESERT<3,4,-1>"),(a,b,t) -> sum[0] += a*10+b));
+		assertEquals(11+21+34,sum[0]);
+	}
+}
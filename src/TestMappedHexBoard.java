@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.uwm.cs351.FormatException;
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.MappedHexBoard;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestMappedHexBoard extends TestCase {
+
+	private Path file;
+	
+	protected HexCoordinate h(int a, int b) { return new HexCoordinate(a,b); }
+	
+	@Override
+	protected void setUp() throws IOException {
+		file = Files.createTempFile("hexboard", ".hexb");
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+	
+	public void test0() throws IOException {
+		MappedHexBoard.save(new HexBoard(), file);
+		MappedHexBoard mb = MappedHexBoard.open(file);
+		assertEquals(0,mb.size());
+		assertFalse(mb.iterator().hasNext());
+		assertNull(mb.terrainAt(h(0,0)));
+	}
+	
+	public void test1() throws IOException {
+		HexBoard hb = new HexBoard();
+		hb.add(new HexTile(Terrain.CITY,h(4,0)));
+		hb.add(new HexTile(Terrain.WATER,h(3,2)));
+		hb.add(new HexTile(Terrain.LAND,h(5,-1)));
+		hb.add(new HexTile(Terrain.FOREST,h(-10,2)));
+		hb.add(new HexTile(Terrain.DESERT,h(5,5)));
+		MappedHexBoard.save(hb, file);
+		MappedHexBoard mb = MappedHexBoard.open(file);
+		assertEquals(5,mb.size());
+		assertEquals(Terrain.FOREST,mb.terrainAt(h(-10,2)));
+		assertEquals(Terrain.LAND,mb.terrainAt(h(5,-1)));
+		assertEquals(Terrain.DESERT,mb.terrainAt(h(5,5)));
+		assertNull(mb.terrainAt(h(5,4)));
+		assertTrue(mb.contains(new HexTile(Terrain.WATER,h(3,2))));
+		assertFalse(mb.contains(new HexTile(Terrain.CITY,h(3,2))));
+		Iterator<HexTile> it1 = hb.iterator(), it2 = mb.iterator();
+		while (it1.hasNext()) assertEquals(it1.next(),it2.next());
+		assertFalse(it2.hasNext());
+	}
+	
+	public void test2() throws IOException {
+		// not in row-major order: sorted when saved, later tiles win
+		List<HexTile> tiles = new ArrayList<>();
+		tiles.add(new HexTile(Terrain.CITY,h(3,3)));
+		tiles.add(new HexTile(Terrain.WATER,h(1,1)));
+		tiles.add(new HexTile(Terrain.LAND,h(3,3)));
+		MappedHexBoard.save(tiles, file);
+		MappedHexBoard mb = MappedHexBoard.open(file);
+		assertEquals(2,mb.size());
+		Iterator<HexTile> it = mb.iterator();
+		assertEquals(new HexTile(Terrain.WATER,h(1,1)),it.next());
+		assertEquals(new HexTile(Terrain.LAND,h(3,3)),it.next());
+	}
+	
+	public void test3() throws IOException {
+		HexBoard hb = new HexBoard();
+		hb.add(new HexTile(Terrain.CITY,h(4,0)));
+		MappedHexBoard.save(hb, file);
+		MappedHexBoard mb = MappedHexBoard.open(file);
+		try {
+			mb.add(new HexTile(Terrain.CITY,h(1,1)));
+			assertFalse("should be read-only",true);
+		} catch (UnsupportedOperationException ex) {
+			assertTrue(true);
+		}
+		assertEquals(1,mb.size());
+	}
+	
+	public void test4() throws IOException {
+		Files.write(file, "CITY<1,1,0>\n".getBytes());
+		try {
+			MappedHexBoard.open(file);
+			assertFalse("should not open a text file",true);
+		} catch (FormatException ex) {
+			assertTrue(true);
+		}
+	}
+	
+	public void test5() throws IOException {
+		HexBoard hb = new HexBoard();
+		hb.add(new HexTile(Terrain.CITY,h(4,0)));
+		hb.add(new HexTile(Terrain.WATER,h(5,0)));
+		MappedHexBoard.save(hb, file);
+		byte[] data = Files.readAllBytes(file);
+		data[data.length-1] = 7; // one past the last terrain
+		Files.write(file, data);
+		MappedHexBoard mb = MappedHexBoard.open(file);
+		assertEquals(Terrain.CITY,mb.terrainAt(h(4,0)));
+		try {
+			mb.terrainAt(h(5,0));
+			assertFalse("should notice bad terrain",true);
+		} catch (FormatException ex) {
+			assertTrue(true);
+		}
+		data[data.length-1] = -1;
+		Files.write(file, data);
+		Iterator<HexTile> it = MappedHexBoard.open(file).iterator();
+		assertEquals(new HexTile(Terrain.CITY,h(4,0)),it.next());
+		try {
+			it.next();
+			assertFalse("should notice bad terrain",true);
+		} catch (FormatException ex) {
+			assertTrue(true);
+		}
+	}
+}
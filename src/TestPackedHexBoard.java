@@ -0,0 +1,54 @@
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.PackedHexBoard;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestPackedHexBoard extends AbstractHexBoardTest<PackedHexBoard> {
+
+	@Override
+	protected PackedHexBoard newBoard() {
+		return new PackedHexBoard();
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate h) {
+		return hb.terrainAt(h);
+	}
+	
+	public void testK() {
+		// extreme coordinates must keep their sign and order
+		hb.add(new HexTile(Terrain.CITY,h(Integer.MAX_VALUE,-1)));
+		hb.add(new HexTile(Terrain.CITY,h(Integer.MIN_VALUE,-1)));
+		hb.add(new HexTile(Terrain.CITY,h(0,Integer.MIN_VALUE)));
+		it = hb.iterator();
+		assertEquals(h(0,Integer.MIN_VALUE),it.next().getLocation());
+		assertEquals(h(Integer.MIN_VALUE,-1),it.next().getLocation());
+		assertEquals(h(Integer.MAX_VALUE,-1),it.next().getLocation());
+	}
+	
+	public void testL() {
+		// removed slots are reused
+		for (int i=0; i < 100; ++i) hb.add(new HexTile(Terrain.LAND,h(i,i)));
+		for (int i=0; i < 100; i += 2) assertTrue(hb.remove(new HexTile(Terrain.LAND,h(i,i))));
+		for (int i=0; i < 100; i += 2) hb.add(new HexTile(Terrain.WATER,h(i,-i)));
+		assertEquals(100,hb.size());
+		assertEquals(Terrain.WATER,hb.terrainAt(h(98,-98)));
+		assertEquals(Terrain.LAND,hb.terrainAt(h(99,99)));
+		assertNull(hb.terrainAt(h(98,98)));
+	}
+	
+	public void test95() {
+		hb.add(new HexTile(Terrain.CITY,h(4,0)));
+		hb.add(new HexTile(Terrain.CITY,h(3,2)));
+		hb.add(new HexTile(Terrain.CITY,h(5,-1)));
+		hb.add(new HexTile(Terrain.CITY,h(10,2)));
+		hb.add(new HexTile(Terrain.CITY,h(5,5)));
+		it = hb.iterator();
+		assertEquals(h(5,-1),it.next().getLocation());
+		assertEquals(h(4,0),it.next().getLocation());		
+		assertEquals(h(3,2),it.next().getLocation());
+		assertEquals(h(10,2),it.next().getLocation());		
+		assertEquals(h(5,5),it.next().getLocation());
+	}
+}
@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.PersistentHexBoard;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestPersistentHexBoard extends AbstractHexBoardTest<PersistentHexBoard> {
+
+	@Override
+	protected PersistentHexBoard newBoard() {
+		return new PersistentHexBoard();
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate h) {
+		return hb.terrainAt(h);
+	}
+	
+	@Override
+	protected void initCollections() {
+		super.initCollections();
+		failFast = false;
+	}
+	
+	public void testK() {
+		for (HexTile t : e) hb.add(t);
+		List<HexTile> tiles = new ArrayList<>();
+		for (HexTile t : hb) tiles.add(t);
+		assertEquals(java.util.Arrays.asList(e[9],e[0],e[1],e[2],e[8],e[3],e[7],e[4],e[6],e[5]),tiles);
+	}
+	
+	public void testL() {
+		// balanced whatever the order
+		for (int i=0; i < 1000; ++i) hb.add(new HexTile(Terrain.LAND,h(i,0)));
+		for (int i=0; i < 1000; i += 2) assertTrue(hb.remove(new HexTile(Terrain.LAND,h(i,0))));
+		assertEquals(500,hb.size());
+		int i = 1;
+		for (HexTile t : hb) {
+			assertEquals(h(i,0),t.getLocation());
+			i += 2;
+		}
+	}
+	
+	
+	/// snapshots
+	
+	public void testS0() {
+		for (HexTile t : e) hb.add(t);
+		PersistentHexBoard snap = hb.snapshot();
+		assertTrue(snap.isReadOnly());
+		assertFalse(hb.isReadOnly());
+		hb.remove(e[3]);
+		hb.add(new HexTile(Terrain.CITY,h(0,0)));
+		hb.add(new HexTile(Terrain.CITY,h(20,20)));
+		assertEquals(10,snap.size());
+		assertEquals(10,hb.size());
+		assertEquals(Terrain.FOREST,snap.terrainAt(h(3,1)));
+		assertEquals(Terrain.INACCESSIBLE,snap.terrainAt(h(0,0)));
+		assertNull(snap.terrainAt(h(20,20)));
+		assertNull(hb.terrainAt(h(3,1)));
+		assertEquals(Terrain.CITY,hb.terrainAt(h(0,0)));
+		assertSame(snap,snap.snapshot());
+	}
+	
+	public void testS1() {
+		hb.add(e[0]);
+		PersistentHexBoard snap = hb.snapshot();
+		assertException(UnsupportedOperationException.class, () -> snap.add(e[1]));
+		assertException(UnsupportedOperationException.class, () -> snap.remove(e[0]));
+		assertException(UnsupportedOperationException.class, () -> snap.clear());
+		Iterator<HexTile> si = snap.iterator();
+		si.next();
+		assertException(UnsupportedOperationException.class, () -> si.remove());
+		PersistentHexBoard copy = new PersistentHexBoard(snap);
+		assertTrue(copy.add(e[1]));
+		assertEquals(2,copy.size());
+		assertEquals(1,snap.size());
+		assertEquals(1,hb.size());
+	}
+	
+	public void testS2() {
+		// iterators see the board as it was
+		for (HexTile t : e) hb.add(t);
+		it = hb.iterator();
+		assertEquals(e[9],it.next());
+		hb.clear();
+		assertEquals(e[0],it.next());
+		it.remove(); // already gone
+		int n = 2;
+		while (it.hasNext()) {
+			it.next();
+			++n;
+		}
+		assertEquals(10,n);
+		assertTrue(hb.isEmpty());
+	}
+	
+	public void testS3() {
+		List<PersistentHexBoard> snaps = new ArrayList<>();
+		for (int i=0; i < 300; ++i) {
+			hb.add(new HexTile(Terrain.values()[i % 7],h(i * 37 % 101,i % 13)));
+			if (i % 3 == 0) hb.remove(new HexTile(Terrain.values()[(i/2) % 7],h((i/2) * 37 % 101,(i/2) % 13)));
+			snaps.add(hb.snapshot());
+		}
+		// every snapshot still has the tiles it had
+		PersistentHexBoard replay = new PersistentHexBoard();
+		for (int i=0; i < 300; ++i) {
+			replay.add(new HexTile(Terrain.values()[i % 7],h(i * 37 % 101,i % 13)));
+			if (i % 3 == 0) replay.remove(new HexTile(Terrain.values()[(i/2) % 7],h((i/2) * 37 % 101,(i/2) % 13)));
+			List<HexTile> expected = new ArrayList<>(replay);
+			assertEquals(expected,new ArrayList<>(snaps.get(i)));
+		}
+	}
+}
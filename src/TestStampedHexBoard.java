@@ -0,0 +1,150 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.StampedHexBoard;
+import edu.uwm.cs351.Terrain;
+import edu.uwm.cs351.TileChange;
+
+
+public class TestStampedHexBoard extends AbstractHexBoardTest<StampedHexBoard> {
+
+	@Override
+	protected StampedHexBoard newBoard() {
+		return new StampedHexBoard();
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate h) {
+		return hb.terrainAt(h);
+	}
+	
+	@Override
+	protected void initCollections() {
+		super.initCollections();
+		failFast = false;
+	}
+	
+	public void testK() {
+		// iterators work on a copy
+		for (HexTile t : e) hb.add(t);
+		it = hb.iterator();
+		assertEquals(e[9],it.next());
+		hb.clear();
+		hb.add(e[0]);
+		assertEquals(e[0],it.next());
+		it.remove();
+		assertTrue(hb.isEmpty());
+		assertEquals(e[1],it.next());
+	}
+	
+	public void testN() {
+		// navigation and counts pass through to the board
+		for (HexTile t : e) hb.add(t);
+		assertEquals(e[9],hb.first());
+		assertEquals(e[5],hb.last());
+		assertEquals(e[2],hb.floor(h(3,0)));
+		assertEquals(e[8],hb.ceiling(h(3,0)));
+		assertEquals(e[1],hb.lower(h(2,0)));
+		assertEquals(e[8],hb.higher(h(2,0)));
+		assertEquals(e[0],hb.get(1));
+		assertEquals(1,hb.rankOf(h(0,0)));
+		assertEquals(2,hb.countOf(Terrain.LAND));
+		assertEquals(Integer.valueOf(1),hb.terrainHistogram().get(Terrain.CITY));
+		assertEquals(Terrain.CITY,hb.terrainAt(6,2));
+		assertEquals(e[9],hb.pollFirst());
+		assertEquals(e[5],hb.pollLast());
+		assertEquals(8,hb.size());
+		assertException(NullPointerException.class, () -> hb.countOf(null));
+	}
+	
+	public void testR() {
+		// ranges are copies
+		for (HexTile t : e) hb.add(t);
+		List<HexTile> row = hb.tilesInRow(0);
+		assertEquals(Arrays.asList(e[0],e[1],e[2],e[8]),row);
+		hb.remove(e[1]);
+		assertEquals(4,row.size());
+		assertException(UnsupportedOperationException.class, () -> row.remove(0));
+		assertEquals(Arrays.asList(e[2],e[8],e[3]),hb.tilesInRange(h(2,0),h(3,1)));
+		assertEquals(Arrays.asList(e[4],e[6]),hb.tilesInRect(4,6,2,2));
+		assertEquals(Arrays.asList(e[9]),hb.headBoard(h(0,0)));
+		assertEquals(Arrays.asList(e[5]),hb.tailBoard(h(0,3)));
+		assertEquals(Arrays.asList(e[0],e[2]),hb.subBoard(h(0,0),h(8,0)));
+		assertEquals(hb.tilesWithin(h(0,0),2).size(),hb.forEachWithin(h(0,0),2,(a,b,t) -> {}));
+		assertException(IllegalStateException.class, () -> hb.tilesOf(Terrain.LAND));
+		StampedHexBoard indexed = new StampedHexBoard(true);
+		indexed.addAll(hb);
+		assertEquals(Arrays.asList(e[7]),indexed.tilesOf(Terrain.LAND));
+		assertEquals(Arrays.asList(e[2],e[8]),indexed.tilesOf(Terrain.WATER,h(0,0),h(3,1)));
+	}
+	
+	public void testS() throws IOException {
+		// batches and snapshots
+		assertEquals(10,hb.applyBatch(Arrays.asList(e)).inserted());
+		HexBoard.BatchResult r = hb.applyBatch(Arrays.asList(new HexTile(Terrain.CITY,h(0,0)),e[1]));
+		assertEquals(0,r.inserted());
+		assertEquals(1,r.updated());
+		assertFalse(hb.applyBatch(hb).changed());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		hb.writeTo(Channels.newChannel(bytes));
+		StampedHexBoard copy = new StampedHexBoard();
+		copy.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(hb.size(),copy.size());
+		assertEquals(Terrain.CITY,copy.terrainAt(h(0,0)));
+	}
+	
+	public void testZ() {
+		// subscribers may read the board as changes are delivered
+		AtomicReference<Terrain> seen = new AtomicReference<>();
+		hb.changes(Runnable::run,4).subscribe(new Flow.Subscriber<TileChange>() {
+			@Override public void onSubscribe(Flow.Subscription s) { s.request(Long.MAX_VALUE); }
+			@Override public void onNext(TileChange c) { seen.set(c.getNewTerrain()); }
+			@Override public void onError(Throwable t) { }
+			@Override public void onComplete() { }
+		});
+		hb.add(e[6]);
+		assertEquals(Terrain.CITY,seen.get());
+		assertNotNull(hb.changes());
+	}
+	
+	public void testT() throws InterruptedException {
+		// readers always see either the old or the new terrain
+		final int readers = 4, cells = 2000;
+		for (int i=0; i < cells; ++i) hb.add(new HexTile(Terrain.LAND,h(i % 50,i / 50)));
+		final AtomicBoolean bad = new AtomicBoolean();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread[] workers = new Thread[readers];
+		for (int r=0; r < readers; ++r) {
+			workers[r] = new Thread(() -> {
+				while (!done.get()) {
+					for (int i=0; i < cells; ++i) {
+						Terrain t = hb.terrainAt(h(i % 50,i / 50));
+						if (t != Terrain.LAND && t != Terrain.WATER) bad.set(true);
+					}
+					int n = hb.size();
+					if (n < cells || n > cells + 100) bad.set(true);
+				}
+			});
+			workers[r].start();
+		}
+		for (int rep=0; rep < 20; ++rep) {
+			for (int i=0; i < cells; ++i) hb.add(new HexTile(rep % 2 == 0 ? Terrain.WATER : Terrain.LAND,h(i % 50,i / 50)));
+			for (int i=0; i < 100; ++i) hb.add(new HexTile(Terrain.CITY,h(i,-1)));
+			for (int i=0; i < 100; ++i) hb.remove(new HexTile(Terrain.CITY,h(i,-1)));
+		}
+		done.set(true);
+		for (Thread w : workers) w.join();
+		assertFalse(bad.get());
+		assertEquals(cells,hb.size());
+	}
+}
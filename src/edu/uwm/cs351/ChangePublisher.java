@@ -0,0 +1,261 @@
+package edu.uwm.cs351;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The publisher behind {@link HexBoard#changes()}.  The board tells it
+ * about each change as it happens, on the board's own thread; each
+ * subscription keeps the changes not yet delivered in a buffer of a
+ * fixed number of locations, where a later change to a location
+ * is merged with the one waiting (and dropped if it undoes it).  The
+ * buffer is keyed on packed locations (see {@link HexKeys}) with a well
+ * mixed hash, since {@link HexCoordinate#hashCode()} collides heavily on
+ * big boards.  Changes are delivered, as the subscriber requests them, by
+ * tasks run on an executor, so a slow subscriber never holds up the
+ * board.  If a
+ * subscriber falls so far behind that its buffer would overflow, the
+ * buffer is emptied and it is sent {@link TileChange#reset()} instead.
+ * <p>
+ * Telling the publisher about a change costs a read of the subscription
+ * list when there are no subscribers.
+ */
+final class ChangePublisher implements Flow.Publisher<TileChange> {
+
+	/**
+	 * Where deliveries run by default: the common pool, as for
+	 * {@link java.util.concurrent.SubmissionPublisher}, unless it has only
+	 * one thread, in which case each delivery task gets its own.
+	 */
+	static final Executor DEFAULT_EXECUTOR = ForkJoinPool.getCommonPoolParallelism() > 1 ? 
+			ForkJoinPool.commonPool() : r -> new Thread(r).start();
+
+	private final CopyOnWriteArrayList<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Subscribe with the default executor and a buffer of
+	 * {@link Flow#defaultBufferSize()} locations.
+	 */
+	@Override // required by Java
+	public void subscribe(Flow.Subscriber<? super TileChange> subscriber) {
+		subscribe(subscriber, DEFAULT_EXECUTOR, Flow.defaultBufferSize());
+	}
+
+	/**
+	 * Subscribe with the given executor and buffer size.
+	 * @param subscriber subscriber, must not be null
+	 * @param executor where to run deliveries, must not be null
+	 * @param capacity most locations to buffer, must be positive
+	 */
+	void subscribe(Flow.Subscriber<? super TileChange> subscriber, Executor executor, int capacity) {
+		if (subscriber == null) throw new NullPointerException("subscriber cannot be null");
+		ChangeSubscription s = new ChangeSubscription(subscriber, executor, capacity);
+		subscriptions.add(s);
+		subscriber.onSubscribe(s);
+	}
+
+	/**
+	 * Return whether anyone is subscribed.
+	 * @return whether there are subscriptions
+	 */
+	boolean hasSubscribers() {
+		return !subscriptions.isEmpty();
+	}
+
+	/**
+	 * Record a change at one location.
+	 * @param loc location, must not be null
+	 * @param oldTerrain terrain before, or null if none
+	 * @param newTerrain terrain after, or null if removed
+	 */
+	void changed(HexCoordinate loc, Terrain oldTerrain, Terrain newTerrain) {
+		for (ChangeSubscription s : subscriptions) s.record(loc, oldTerrain, newTerrain);
+	}
+
+	/**
+	 * Record that all these tiles have been removed.
+	 * @param count number of tiles
+	 * @param tiles the tiles, must not be null
+	 */
+	void removedAll(int count, Iterable<HexTile> tiles) {
+		for (ChangeSubscription s : subscriptions) s.recordAll(count, tiles);
+	}
+
+	/**
+	 * Record that the board has changed in too many ways to list.
+	 */
+	void changedAll() {
+		for (ChangeSubscription s : subscriptions) s.recordReset();
+	}
+
+	/**
+	 * A packed location as a key of the pending buffer, hashed with
+	 * {@link HashHexBoard#mix(long)}.
+	 */
+	private static final class Key {
+		private final long key;
+
+		Key(long key) {
+			this.key = key;
+		}
+
+		@Override // implementation
+		public boolean equals(Object x) {
+			return x instanceof Key && ((Key) x).key == key;
+		}
+
+		@Override // implementation
+		public int hashCode() {
+			return (int) HashHexBoard.mix(key);
+		}
+	}
+
+	private final class ChangeSubscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super TileChange> subscriber;
+		private final Executor executor;
+		private final int capacity;
+		// all fields below guarded by this
+		private final LinkedHashMap<Key, TileChange> pending = new LinkedHashMap<>();
+		private boolean reset;
+		private long demand;
+		private boolean scheduled;
+		private boolean cancelled;
+		private Throwable error; // to signal in place of further changes
+
+		ChangeSubscription(Flow.Subscriber<? super TileChange> subscriber, Executor executor, int capacity) {
+			this.subscriber = subscriber;
+			this.executor = executor;
+			this.capacity = capacity;
+		}
+
+		synchronized void record(HexCoordinate loc, Terrain oldTerrain, Terrain newTerrain) {
+			if (cancelled || reset) return;
+			Key k = new Key(HexKeys.key(loc));
+			TileChange waiting = pending.get(k);
+			if (waiting != null) {
+				oldTerrain = waiting.getOldTerrain();
+				if (oldTerrain == newTerrain) pending.remove(k);
+				else pending.put(k, new TileChange(loc, oldTerrain, newTerrain));
+			} else if (pending.size() == capacity) {
+				recordReset();
+				return;
+			} else {
+				pending.put(k, new TileChange(loc, oldTerrain, newTerrain));
+			}
+			schedule();
+		}
+
+		synchronized void recordAll(int count, Iterable<HexTile> tiles) {
+			if (cancelled || reset) return;
+			if (pending.size() + count > capacity) {
+				recordReset();
+				return;
+			}
+			for (HexTile t : tiles) record(t.getLocation(), t.getTerrain(), null);
+		}
+
+		synchronized void recordReset() {
+			if (cancelled) return;
+			pending.clear();
+			reset = true;
+			schedule();
+		}
+
+		/**
+		 * Start a delivery task if there is something to deliver (or an
+		 * error to signal) and none is running.
+		 */
+		private void schedule() {
+			if (scheduled || (error == null && (demand == 0 || (!reset && pending.isEmpty())))) return;
+			scheduled = true;
+			executor.execute(this::deliver);
+		}
+
+		/**
+		 * Return the next change to deliver, or null (ending the delivery
+		 * task) if there is none or none has been requested.
+		 */
+		private synchronized TileChange take() {
+			if (cancelled || demand == 0 || (!reset && pending.isEmpty())) {
+				scheduled = false;
+				return null;
+			}
+			if (demand != Long.MAX_VALUE) --demand;
+			if (reset) {
+				reset = false;
+				return TileChange.reset();
+			}
+			Iterator<TileChange> it = pending.values().iterator();
+			TileChange next = it.next();
+			it.remove();
+			return next;
+		}
+
+		/**
+		 * Return the error to signal, or null if none.  Once it is taken,
+		 * the subscription is cancelled and the delivery task ends.
+		 */
+		private synchronized Throwable takeError() {
+			Throwable e = error;
+			if (e != null) {
+				error = null;
+				cancelled = true;
+				pending.clear();
+				scheduled = false;
+			}
+			return e;
+		}
+
+		private void deliver() {
+			for (;;) {
+				TileChange c = null;
+				Throwable e;
+				synchronized (this) {
+					e = takeError();
+					if (e == null && (c = take()) == null) return;
+				}
+				if (e != null) {
+					subscriptions.remove(this);
+					subscriber.onError(e);
+					return;
+				}
+				try {
+					subscriber.onNext(c);
+				} catch (RuntimeException ex) {
+					cancel();
+					subscriber.onError(ex);
+					return;
+				}
+			}
+		}
+
+		@Override // required by Java
+		public void request(long n) {
+			synchronized (this) {
+				if (cancelled) return;
+				if (n <= 0) {
+					// signalled by the delivery task, so never during onNext
+					if (error == null) error = new IllegalArgumentException("must request a positive number: " + n);
+				} else {
+					demand += n;
+					if (demand < 0) demand = Long.MAX_VALUE; // unbounded
+				}
+				schedule();
+			}
+		}
+
+		@Override // required by Java
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				pending.clear();
+				error = null;
+			}
+			subscriptions.remove(this);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package edu.uwm.cs351;
+
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * A hex board for large, mostly filled maps.  The plane is divided into
+ * square chunks of {@value #CHUNK} by {@value #CHUNK} hexes, each of which
+ * is a byte array of terrains (0 for no tile, otherwise the terrain
+ * ordinal plus one).  Chunks are created when the first tile is added in
+ * them and dropped when their last tile is removed.  They are indexed by
+ * the packed key of their chunk coordinate (see {@link HexKeys}), so the
+ * index is in the same row-major order as the tiles.
+ * <p>
+ * Reading or writing a tile in the same chunk as the previous access costs
+ * about as much as an array access; otherwise the chunk is found in
+ * O(log chunks) time.  Iteration is in row-major order, like {@link HexBoard}.
+ */
+public class ChunkedHexBoard extends AbstractCollection<HexTile> {
+
+	private static boolean doReport = true;
+
+	/** Number of hexes along each side of a chunk. */
+	public static final int CHUNK = 64;
+	private static final int SHIFT = 6; // log2(CHUNK)
+	private static final int MASK = CHUNK - 1;
+	private static final Terrain[] TERRAINS = Terrain.values();
+
+	private static class Chunk {
+		final int ca, cb; // chunk coordinates
+		final byte[] cells = new byte[CHUNK * CHUNK];
+		int count;
+		Chunk(int ca, int cb) { this.ca = ca; this.cb = cb; }
+	}
+
+	private final TreeMap<Long,Chunk> chunks = new TreeMap<>();
+	private Chunk lastChunk; // most recently used, or null
+	private int size;
+	private int version;
+
+	/**
+	 * Create an empty chunked hex board.
+	 */
+	public ChunkedHexBoard() {
+		assert wellFormed() : "in constructor";
+	}
+
+	private static boolean report(String s) {
+		if (doReport) System.err.println("Invariant error: " + s);
+		return false;
+	}
+
+	private boolean wellFormed() {
+		int total = 0;
+		for (Map.Entry<Long,Chunk> e : chunks.entrySet()) {
+			Chunk ch = e.getValue();
+			if (e.getKey() != HexKeys.key(ch.ca, ch.cb)) return report("chunk under wrong key: " + e.getKey());
+			int count = 0;
+			for (byte cell : ch.cells) {
+				if (cell < 0 || cell > TERRAINS.length) return report("bad cell in chunk " + e.getKey());
+				if (cell != 0) ++count;
+			}
+			if (count != ch.count) return report("chunk count disparity in chunk " + e.getKey());
+			if (count == 0) return report("empty chunk was not freed: " + e.getKey());
+			total += count;
+		}
+		if (total != size) return report(String.format("Size disparity. Field: %d\tCount: %d", size, total));
+		if (lastChunk != null && chunks.get(HexKeys.key(lastChunk.ca, lastChunk.cb)) != lastChunk)
+			return report("cached chunk is not in the board");
+		return true;
+	}
+
+	private static int cell(int a, int b) {
+		return ((b & MASK) << SHIFT) | (a & MASK);
+	}
+
+	/**
+	 * Return the chunk holding this location, or null if there is none.
+	 * @param a first coordinate of location
+	 * @param b second coordinate of location
+	 * @return chunk or null
+	 */
+	private Chunk getChunk(int a, int b) {
+		int ca = a >> SHIFT, cb = b >> SHIFT;
+		Chunk ch = lastChunk;
+		if (ch != null && ch.ca == ca && ch.cb == cb) return ch;
+		ch = chunks.get(HexKeys.key(ca, cb));
+		if (ch != null) lastChunk = ch;
+		return ch;
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null if nothing at this
+	 * coordinate.
+	 * @param c hex coordinate to look for, must not be null
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate c) {
+		assert wellFormed() : "in terrainAt";
+		Chunk ch = getChunk(c.a(), c.b());
+		if (ch == null) return null;
+		byte cell = ch.cells[cell(c.a(), c.b())];
+		return cell == 0 ? null : TERRAINS[cell - 1];
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		assert wellFormed() : "in iterator";
+		return new MyIterator();
+	}
+
+	@Override // required by Java
+	public int size() {
+		assert wellFormed() : "in size";
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		return terrainAt(tile.getLocation()) == tile.getTerrain();
+	}
+
+	@Override
+	public void clear() {
+		chunks.clear();
+		lastChunk = null;
+		size = 0;
+		++version;
+	}
+
+	/**
+	 * Add the tile, or change the terrain if there is already a tile at
+	 * its location.
+	 * @param t tile to add, must not be null
+	 * @return false if the terrain at that location is unchanged
+	 * @throws NullPointerException if the tile is null
+	 */
+	@Override
+	public boolean add(HexTile t) {
+		assert wellFormed() : "in add";
+		if (t == null) throw new NullPointerException("No adding null tiles");
+		int a = t.getLocation().a(), b = t.getLocation().b();
+		Chunk ch = getChunk(a, b);
+		if (ch == null) {
+			ch = new Chunk(a >> SHIFT, b >> SHIFT);
+			chunks.put(HexKeys.key(ch.ca, ch.cb), ch);
+			lastChunk = ch;
+		}
+		int i = cell(a, b);
+		byte cell = (byte) (t.getTerrain().ordinal() + 1);
+		if (ch.cells[i] == cell) return false;
+		if (ch.cells[i] == 0) {
+			++ch.count;
+			++size;
+		}
+		ch.cells[i] = cell;
+		++version;
+		assert wellFormed() : "after add";
+		return true;
+	}
+
+	/**
+	 * Clear a cell that holds a tile, dropping the chunk if it is now empty.
+	 * @param ch chunk, must not be null
+	 * @param i index of a non-empty cell
+	 */
+	private void removeCell(Chunk ch, int i) {
+		ch.cells[i] = 0;
+		if (--ch.count == 0) {
+			chunks.remove(HexKeys.key(ch.ca, ch.cb));
+			if (lastChunk == ch) lastChunk = null;
+		}
+		--size;
+		++version;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		assert wellFormed() : "in remove";
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		int a = tile.getLocation().a(), b = tile.getLocation().b();
+		Chunk ch = getChunk(a, b);
+		if (ch == null) return false;
+		int i = cell(a, b);
+		if (ch.cells[i] != tile.getTerrain().ordinal() + 1) return false;
+		removeCell(ch, i);
+		assert wellFormed() : "after remove";
+		return true;
+	}
+
+	/**
+	 * The iterator goes through one band of chunks (all the chunks with the
+	 * same chunk row) at a time, doing each row of hexes across all the
+	 * chunks in the band before the next row.
+	 */
+	private class MyIterator implements Iterator<HexTile> {
+		private int myVersion = version;
+		private Chunk[] band; // null when there are no more bands
+		private int row, chunk, col; // position of the next tile
+		private Chunk removable; // chunk of last returned, if it can be removed
+		private int removableCell;
+
+		MyIterator() {
+			if (!chunks.isEmpty()) loadBand(chunks.firstKey());
+			advance();
+		}
+
+		/**
+		 * Start on the band of chunks in the same chunk row as the given
+		 * chunk key, which must be in the board.
+		 */
+		private void loadBand(long key) {
+			int cb = HexKeys.b(key);
+			band = chunks.subMap(key, true, HexKeys.key(Integer.MAX_VALUE, cb), true)
+					.values().toArray(new Chunk[0]);
+			row = chunk = col = 0;
+		}
+
+		/**
+		 * Move the position forward to the next tile, starting at
+		 * the current position.
+		 */
+		private void advance() {
+			while (band != null) {
+				for (; row < CHUNK; ++row, chunk = 0) {
+					for (; chunk < band.length; ++chunk, col = 0) {
+						byte[] cells = band[chunk].cells;
+						int base = row << SHIFT;
+						for (; col < CHUNK; ++col) {
+							if (cells[base + col] != 0) return;
+						}
+					}
+				}
+				Long next = chunks.higherKey(HexKeys.key(Integer.MAX_VALUE, band[0].cb));
+				if (next == null) band = null;
+				else loadBand(next);
+			}
+		}
+
+		@Override // required by Java
+		public boolean hasNext() {
+			checkStale();
+			return band != null;
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			if (!hasNext()) throw new NoSuchElementException("Iterator exhausted");
+			Chunk ch = band[chunk];
+			removable = ch;
+			removableCell = (row << SHIFT) | col;
+			HexTile result = new HexTile(TERRAINS[ch.cells[removableCell] - 1],
+					new HexCoordinate((ch.ca << SHIFT) | col, (ch.cb << SHIFT) | row));
+			++col;
+			advance();
+			return result;
+		}
+
+		@Override // implementation
+		public void remove() {
+			checkStale();
+			if (removable == null) throw new IllegalStateException("Nothing to remove");
+			removeCell(removable, removableCell); // the band keeps a dropped chunk
+			removable = null;
+			myVersion = version;
+		}
+
+		private void checkStale() {
+			if (myVersion != version) throw new ConcurrentModificationException("This iterator is stale.");
+		}
+	}
+}
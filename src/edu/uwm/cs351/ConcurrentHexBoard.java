@@ -0,0 +1,157 @@
+package edu.uwm.cs351;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A hex board that many threads may use at once without locking.  The
+ * tiles are kept in a lock-free skip list keyed on the packed location
+ * (see {@link HexKeys}), whose signed order is the row-major order of
+ * {@link HexBoard}, so iteration is in the same order.
+ * <p>
+ * Adding, removing and {@link #terrainAt(HexCoordinate)} take expected
+ * O(log n) time and never block each other.  Iterators are weakly
+ * consistent: they never throw {@link java.util.ConcurrentModificationException},
+ * return each tile at most once, and may or may not show changes made
+ * after they were created.  {@link #size()} is exact when no other thread
+ * is changing the board, and otherwise a recent value.
+ */
+public class ConcurrentHexBoard extends AbstractCollection<HexTile> {
+
+	private final ConcurrentSkipListMap<Long, Terrain> tiles = new ConcurrentSkipListMap<>();
+	private final LongAdder count = new LongAdder();
+
+	// There is no wellFormed() here: with other threads changing the board,
+	// there is no moment at which the size and the skip list can be compared.
+
+	/**
+	 * Create an empty concurrent hex board.
+	 */
+	public ConcurrentHexBoard() { }
+
+	/**
+	 * Return the terrain at the given coordinate or null if nothing at this
+	 * coordinate.
+	 * @param c hex coordinate to look for, must not be null
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate c) {
+		return tiles.get(HexKeys.key(c));
+	}
+
+	/**
+	 * Add the tile, or change the terrain if there is already a tile at
+	 * its location.
+	 * @param t tile to add, must not be null
+	 * @return false if the terrain at that location is unchanged
+	 * @throws NullPointerException if the tile is null
+	 */
+	@Override
+	public boolean add(HexTile t) {
+		if (t == null) throw new NullPointerException("No adding null tiles");
+		Terrain old = tiles.put(HexKeys.key(t.getLocation()), t.getTerrain());
+		if (old == null) count.increment();
+		return old != t.getTerrain();
+	}
+
+	/**
+	 * Remove the tile if it is in the board (same location and terrain).
+	 * @param o object to remove (null OK but pointless)
+	 * @return whether the tile was removed
+	 */
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		return removeKey(HexKeys.key(tile.getLocation()), tile.getTerrain());
+	}
+
+	private boolean removeKey(long k, Terrain t) {
+		if (!tiles.remove(k, t)) return false;
+		count.decrement();
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		return terrainAt(tile.getLocation()) == tile.getTerrain();
+	}
+
+	@Override // required by Java
+	public int size() {
+		return (int) Math.max(0, Math.min(Integer.MAX_VALUE, count.sum()));
+	}
+
+	@Override // efficiency
+	public boolean isEmpty() {
+		return tiles.isEmpty();
+	}
+
+	/**
+	 * Remove all the tiles.  Tiles that other threads add while this
+	 * is going on may or may not be removed.
+	 */
+	@Override
+	public void clear() {
+		for (Map.Entry<Long, Terrain> e : tiles.entrySet()) {
+			removeKey(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Return the tiles in one row, in order.  Like the board's iterator,
+	 * the iterators are weakly consistent.
+	 * @param b row
+	 * @return the tiles whose location has this b
+	 */
+	public Iterable<HexTile> tilesInRow(int b) {
+		long from = HexKeys.key(Integer.MIN_VALUE, b), to = HexKeys.key(Integer.MAX_VALUE, b);
+		return () -> new MyIterator(tiles.subMap(from, true, to, true).entrySet().iterator());
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		return new MyIterator(tiles.entrySet().iterator());
+	}
+
+	private class MyIterator implements Iterator<HexTile> {
+		private final Iterator<Map.Entry<Long, Terrain>> entries;
+		private long lastKey;
+		private Terrain lastTerrain; // null if nothing to remove
+
+		MyIterator(Iterator<Map.Entry<Long, Terrain>> entries) {
+			this.entries = entries;
+		}
+
+		@Override // required by Java
+		public boolean hasNext() {
+			return entries.hasNext();
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			if (!hasNext()) throw new NoSuchElementException("Iterator exhausted");
+			Map.Entry<Long, Terrain> e = entries.next();
+			lastKey = e.getKey();
+			lastTerrain = e.getValue();
+			return new HexTile(lastTerrain, HexKeys.toCoordinate(lastKey));
+		}
+
+		/**
+		 * Remove the tile last returned, unless another thread has
+		 * already removed it or changed its terrain.
+		 */
+		@Override // implementation
+		public void remove() {
+			if (lastTerrain == null) throw new IllegalStateException("Nothing to remove");
+			removeKey(lastKey, lastTerrain);
+			lastTerrain = null;
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package edu.uwm.cs351;
+
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A hex board kept in an open-addressing hash table, for boards that are
+ * looked up far more often than they are iterated.  Locations are packed
+ * into long keys (see {@link HexKeys}) and probed linearly from a well mixed
+ * hash of the key; {@link HexCoordinate#hashCode()} is not used since it
+ * collides heavily once coordinates need more than 8 bits.  Terrains are
+ * stored as bytes in a parallel array.
+ * <p>
+ * Adding, removing and {@link #terrainAt(HexCoordinate)} take expected
+ * constant time.  Unlike {@link HexBoard}, iteration is <em>not</em> in
+ * row-major order.  A board holds at most 2<sup>29</sup> tiles.
+ */
+public class HashHexBoard extends AbstractCollection<HexTile> {
+
+	private static boolean doReport = true;
+
+	private static final byte EMPTY = 0;
+	private static final byte DELETED = -1; // otherwise terrain ordinal + 1
+	private static final int INITIAL_CAPACITY = 16; // must be a power of two
+	private static final int MAX_CAPACITY = 1 << 30;
+	private static final int MAX_SIZE = MAX_CAPACITY / 2; // so the table is at most half full
+	private static final Terrain[] TERRAINS = Terrain.values();
+
+	private long[] keys;
+	private byte[] states;
+	private int size;
+	private int deleted;
+	private int version;
+
+	/**
+	 * Create an empty hash hex board.
+	 */
+	public HashHexBoard() {
+		keys = new long[INITIAL_CAPACITY];
+		states = new byte[INITIAL_CAPACITY];
+		assert wellFormed() : "in constructor";
+	}
+
+	private static boolean report(String s) {
+		if (doReport) System.err.println("Invariant error: " + s);
+		return false;
+	}
+
+	private boolean wellFormed() {
+		int capacity = keys.length;
+		if (Integer.bitCount(capacity) != 1) return report("capacity is not a power of two: " + capacity);
+		if (states.length != capacity) return report("arrays have different lengths");
+		int live = 0, dead = 0;
+		for (int i=0; i < capacity; ++i) {
+			if (states[i] == DELETED) ++dead;
+			else if (states[i] != EMPTY) {
+				++live;
+				if (states[i] > TERRAINS.length) return report("bad terrain at slot " + i);
+				if (find(keys[i]) != i) return report("key at slot " + i + " cannot be found");
+			}
+		}
+		if (live != size) return report(String.format("Size disparity. Field: %d\tCount: %d", size, live));
+		if (dead != deleted) return report(String.format("Deleted disparity. Field: %d\tCount: %d", deleted, dead));
+		if (size + deleted >= capacity) return report("no empty slots");
+		return true;
+	}
+
+	/**
+	 * Mix all the bits of a packed key into a hash code
+	 * (the finalizer of MurmurHash3).
+	 * @param k packed key
+	 * @return well-distributed hash of the key
+	 */
+	static long mix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	/**
+	 * Return the slot holding this key, or -1 if none.
+	 * @param k packed key to look for
+	 * @return slot index, or -1
+	 */
+	private int find(long k) {
+		int mask = keys.length - 1;
+		for (int i = (int) mix(k) & mask; ; i = (i + 1) & mask) {
+			byte s = states[i];
+			if (s == EMPTY) return -1;
+			if (s != DELETED && keys[i] == k) return i;
+		}
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null if nothing at this
+	 * coordinate.
+	 * @param c hex coordinate to look for, must not be null
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate c) {
+		assert wellFormed() : "in terrainAt";
+		int i = find(HexKeys.key(c));
+		return i < 0 ? null : TERRAINS[states[i] - 1];
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		assert wellFormed() : "in iterator";
+		return new MyIterator();
+	}
+
+	@Override // required by Java
+	public int size() {
+		assert wellFormed() : "in size";
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		assert wellFormed() : "in contains";
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		int i = find(HexKeys.key(tile.getLocation()));
+		return i >= 0 && states[i] == tile.getTerrain().ordinal() + 1;
+	}
+
+	@Override
+	public void clear() {
+		keys = new long[INITIAL_CAPACITY];
+		states = new byte[INITIAL_CAPACITY];
+		size = 0;
+		deleted = 0;
+		++version;
+	}
+
+	/**
+	 * Move every live entry into fresh arrays big enough to keep
+	 * the table at most a quarter full (or as big as they can be),
+	 * dropping deleted markers.
+	 */
+	private void rehash() {
+		long wanted = 4L * (size + 1);
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < wanted && capacity < MAX_CAPACITY) capacity *= 2;
+		long[] oldKeys = keys;
+		byte[] oldStates = states;
+		keys = new long[capacity];
+		states = new byte[capacity];
+		deleted = 0;
+		int mask = capacity - 1;
+		for (int j=0; j < oldKeys.length; ++j) {
+			if (oldStates[j] == EMPTY || oldStates[j] == DELETED) continue;
+			int i = (int) mix(oldKeys[j]) & mask;
+			while (states[i] != EMPTY) i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			states[i] = oldStates[j];
+		}
+	}
+
+	/**
+	 * Add the tile, or change the terrain if there is already a tile at
+	 * its location.
+	 * @param t tile to add, must not be null
+	 * @return false if the terrain at that location is unchanged
+	 * @throws NullPointerException if the tile is null
+	 * @throws IllegalStateException if the tile is at a new location
+	 *         and the board already holds as many tiles as it can
+	 */
+	@Override
+	public boolean add(HexTile t) {
+		assert wellFormed() : "in add";
+		if (t == null) throw new NullPointerException("No adding null tiles");
+		long k = HexKeys.key(t.getLocation());
+		byte state = (byte) (t.getTerrain().ordinal() + 1);
+		int mask = keys.length - 1;
+		int slot = -1; // first deleted slot seen, to reuse
+		int i = (int) mix(k) & mask;
+		for (; states[i] != EMPTY; i = (i + 1) & mask) {
+			if (states[i] == DELETED) {
+				if (slot < 0) slot = i;
+			} else if (keys[i] == k) {
+				if (states[i] == state) return false;
+				states[i] = state;
+				++version;
+				return true;
+			}
+		}
+		if (size == MAX_SIZE) throw new IllegalStateException("Hash hex board is full: " + size + " tiles");
+		if (slot < 0) slot = i;
+		else --deleted;
+		keys[slot] = k;
+		states[slot] = state;
+		++size;
+		++version;
+		if (2 * (size + deleted) > keys.length) rehash();
+		assert wellFormed() : "after add";
+		return true;
+	}
+
+	private void removeSlot(int i) {
+		states[i] = DELETED;
+		++deleted;
+		--size;
+		++version;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		assert wellFormed() : "in remove";
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		int i = find(HexKeys.key(tile.getLocation()));
+		if (i < 0 || states[i] != tile.getTerrain().ordinal() + 1) return false;
+		removeSlot(i);
+		assert wellFormed() : "after remove";
+		return true;
+	}
+
+	private class MyIterator implements Iterator<HexTile> {
+		private int myVersion = version;
+		private int next = advance(0);
+		private int current = -1; // last returned, if it can be removed
+
+		/**
+		 * Return the first live slot at or after i, or the capacity if none.
+		 */
+		private int advance(int i) {
+			while (i < states.length && (states[i] == EMPTY || states[i] == DELETED)) ++i;
+			return i;
+		}
+
+		@Override // required by Java
+		public boolean hasNext() {
+			checkStale();
+			return next < states.length;
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			if (!hasNext()) throw new NoSuchElementException("Iterator exhausted");
+			current = next;
+			next = advance(next + 1);
+			return new HexTile(TERRAINS[states[current] - 1], HexKeys.toCoordinate(keys[current]));
+		}
+
+		@Override // implementation
+		public void remove() {
+			checkStale();
+			if (current < 0) throw new IllegalStateException("Nothing to remove");
+			removeSlot(current); // no rehash, so slots stay put
+			current = -1;
+			myVersion = version;
+		}
+
+		private void checkStale() {
+			if (myVersion != version) throw new ConcurrentModificationException("This iterator is stale.");
+		}
+	}
+}
@@ -1,16 +1,33 @@
 package edu.uwm.cs351;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
+import java.util.EnumMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 
 import junit.framework.TestCase;
 
 /**
- * An implementation of the HexBoard ADT using a binary search tree 
- * implementation. A hex board is a collection of hex tiles except 
- * that there can never be two tiles at the same location.
+ * An implementation of the HexBoard ADT using a red-black binary search
+ * tree implementation. A hex board is a collection of hex 
+ * tiles except that there can never be two tiles at the same location.
+ * The tree stays balanced whatever the order tiles are added in, so 
+ * adding and looking up tiles take O(log n) time.
  *
  * @author Eddie Chapman (chapman4@uwm.edu)
  *
@@ -25,11 +42,31 @@ public class HexBoard extends AbstractCollection<HexTile>
     private Node root;
     private int size;
     private int version;
+    private final int[] terrainCounts = new int[Terrain.values().length]; // by ordinal
+    private final TreeSet<HexCoordinate>[] terrainIndex; // by ordinal, null if not indexed
+    private ChangePublisher publisher; // null until someone asks for changes
+    
+    /**
+     * An iterator over tiles in row-major order that can jump ahead.
+     */
+    public interface BoardIterator extends Iterator<HexTile> {
+        /**
+         * Pass over tiles without returning them.  Afterwards there
+         * is no tile that can be removed until next() is called again.
+         * 
+         * @param n        number of tiles to pass over
+         * @return         number passed over, less than n if the 
+         *                 iteration ran out (0 if n is not positive)
+         */
+        long skip(long n);
+    }
 
     private static class Node {
         HexCoordinate loc;
         Terrain terrain;
-        Node left, right;
+        Node left, right, parent;
+        boolean red;
+        int count = 1; // nodes in this subtree
         Node(HexCoordinate l, Terrain t) { loc = l; terrain = t; }
     }
     
@@ -39,12 +76,38 @@ public class HexBoard extends AbstractCollection<HexTile>
      * @returns an empty hex board.
      */
     public HexBoard() {
+        this(false);
+    }
+    
+    /**
+     * Create an empty hex board, with or without a terrain index.  The 
+     * index keeps the locations of each terrain in order, so that
+     * {@link #tilesOf(Terrain)} takes time proportional to the number of
+     * tiles with that terrain rather than the size of the board.  Keeping
+     * it up to date makes every change take O(log n) time more.
+     * 
+     * @param indexTerrains whether to keep an index by terrain
+     */
+    public HexBoard(boolean indexTerrains) {
         root = null;
         size = 0;
         version = 0;
+        terrainIndex = indexTerrains ? newTerrainIndex() : null;
         assert wellFormed() : "in constructor";
     }
     
+    /**
+     * Create an empty set of locations for each terrain, by ordinal.
+     * (Java cannot create an array of a generic type directly.)
+     * @return new array of empty sets
+     */
+    @SuppressWarnings({"unchecked","rawtypes"})
+    private static TreeSet<HexCoordinate>[] newTerrainIndex() {
+        TreeSet<HexCoordinate>[] result = new TreeSet[Terrain.values().length];
+        for (int i=0; i < result.length; ++i) result[i] = new TreeSet<>(HexBoard::compare);
+        return result;
+    }
+    
 	private static boolean report(String s) {
         if (doReport) System.err.println("Invariant error: " + s);
         return false;
@@ -106,13 +169,101 @@ public class HexBoard extends AbstractCollection<HexTile>
 		return countNodes(p.left) + countNodes(p.right) + 1;
 	}
 	
+	/**
+	 * Return the number of black nodes on every path from this subtree 
+	 * down to a null link, or -1 if the paths disagree or a red node 
+	 * has a red child.
+	 * 
+	 * @param r        subtree to check (may be null)
+	 * @return         black height of the subtree, or -1 if not a red-black tree
+	 */
+	private static int blackHeight(Node r) {
+	    if (r == null) return 0;
+	    if (r.red && (isRed(r.left) || isRed(r.right))) return -1;
+	    int lh = blackHeight(r.left);
+	    int rh = blackHeight(r.right);
+	    if (lh < 0 || lh != rh) return -1;
+	    return r.red ? lh : lh + 1;
+	}
+	
+	/**
+	 * Return true if every node in this subtree is the parent of its children.
+	 * 
+	 * @param r        subtree to check (may be null)
+	 * @return         whether the parent links agree with the child links
+	 */
+	private static boolean hasParentLinks(Node r) {
+	    if (r == null) return true;
+	    if (r.left != null && r.left.parent != r) return false;
+	    if (r.right != null && r.right.parent != r) return false;
+	    return hasParentLinks(r.left) && hasParentLinks(r.right);
+	}
+	
+	/**
+	 * Return the number of nodes in this subtree, or -1 if any node's
+	 * count field does not match the size of its subtree.
+	 * 
+	 * @param r        subtree to check (may be null)
+	 * @return         size of the subtree, or -1 if the counts are wrong
+	 */
+	private static int checkedCount(Node r) {
+	    if (r == null) return 0;
+	    int lc = checkedCount(r.left);
+	    int rc = checkedCount(r.right);
+	    if (lc < 0 || rc < 0 || r.count != lc + rc + 1) return -1;
+	    return r.count;
+	}
+	
+	/**
+	 * Add the number of nodes of each terrain in this subtree to the counts.
+	 * 
+	 * @param r        subtree (may be null)
+	 * @param counts   counts by terrain ordinal, must not be null
+	 */
+	private static void countTerrains(Node r, int[] counts) {
+	    for (; r != null; r = r.right) {
+	        countTerrains(r.left, counts);
+	        ++counts[r.terrain.ordinal()];
+	    }
+	}
+	
+	/**
+	 * Check the red-black balance, the parent links, the subtree counts
+	 * and the terrain counts of the tree.  This is kept separate from 
+	 * {@link #wellFormed()} which only checks the search tree order and 
+	 * the size.
+	 * 
+	 * @return         whether the root is black and the tree is a red-black tree
+	 */
+	private boolean isBalanced() {
+	    if (isRed(root)) return report("Root is red.");
+	    if (root != null && root.parent != null) return report("Root has a parent.");
+	    if (!hasParentLinks(root)) return report("Parent links are inconsistent.");
+	    if (blackHeight(root) < 0) return report("Tree is not red-black balanced.");
+	    if (checkedCount(root) != size) return report("Subtree counts are inconsistent.");
+	    int[] counts = new int[terrainCounts.length];
+	    countTerrains(root, counts);
+	    if (!Arrays.equals(counts, terrainCounts)) return report("Terrain counts are inconsistent.");
+	    if (terrainIndex != null) {
+	        for (Terrain t : Terrain.values()) {
+	            TreeSet<HexCoordinate> locs = terrainIndex[t.ordinal()];
+	            if (locs.size() != terrainCounts[t.ordinal()]) return report("Terrain index has the wrong size for " + t);
+	            for (HexCoordinate h : locs) {
+	                if (terrainAtUnchecked(h) != t) return report("Terrain index has " + h + " for " + t);
+	            }
+	        }
+	    }
+	    return true;
+	}
+	
 	private boolean wellFormed() {
         if (!isInProperOrder(root, null, null)) 
             return report("Tree is out of proper order.");
   
-        if (size != countNodes(root)) 
+        int count = countNodes(root);
+        if (size != count) 
             return report(String.format("Size disparity. Field: %d\tMethod: %d", 
-                                        size, countNodes(root)));
+                                        size, count));
         
         return true;
     }
@@ -142,8 +293,35 @@ public class HexBoard extends AbstractCollection<HexTile>
 		return null;
 	}
 	
+	/**
+	 * Return the terrain at the location (a,b) or null if nothing there.
+	 * This is the same as {@link #terrainAt(HexCoordinate)} but does not
+	 * need a hex coordinate to be created.
+	 * 
+	 * @param a        column of the location
+	 * @param b        row of the location
+	 * @return         terrain at that location, or null if nothing
+	 */
+	public Terrain terrainAt(int a, int b) {
+	    assert wellFormed() : "in terrainAt";
+	    Node n = root;
+	    while (n != null) {
+	        int c = compare(a, b, n.loc);
+	        if (c == 0) return n.terrain;
+	        n = c < 0 ? n.left : n.right;
+	    }
+	    return null;
+	}
+	
+	/**
+	 * Return an iterator over the tiles in row-major order.  The 
+	 * iterator is fail-fast, supports removal, and can skip ahead in
+	 * O(log n) time.
+	 * 
+	 * @return         iterator over the board
+	 */
 	@Override // required by Java
-	public Iterator<HexTile> iterator() {
+	public BoardIterator iterator() {
 		assert wellFormed() : "in iterator";
 		return new MyIterator();
 	}
@@ -167,28 +345,177 @@ public class HexBoard extends AbstractCollection<HexTile>
 
     @Override
     public void clear() {
+        if (publisher != null && size > 0) publisher.removedAll(size, this);
+        Arrays.fill(terrainCounts, 0);
+        if (terrainIndex != null) {
+            for (TreeSet<HexCoordinate> locs : terrainIndex) locs.clear();
+        }
         root = null;
         size = 0;
         ++version;
     }
 	
 	
-	private Node _add(Node n, HexTile t) {
-	    if (n == null) return new Node(t.getLocation(), t.getTerrain());
-	    switch (compare(n.loc, t.getLocation())) {
-            case -1:
-                n.right = _add(n.right, t);
-                break;
-            case 0:
-                n.terrain = t.getTerrain();
-                break;
-            case 1:
-                n.left = _add(n.left, t);
-                break;
-        }
-	    return n;
+	private static boolean isRed(Node n) {
+	    return n != null && n.red;
+	}
+	
+	private static int count(Node n) {
+	    return n == null ? 0 : n.count;
+	}
+	
+	private static void recount(Node n) {
+	    n.count = count(n.left) + count(n.right) + 1;
+	}
+	
+	private void rotateLeft(Node n) {
+	    Node r = n.right;
+	    n.right = r.left;
+	    if (r.left != null) r.left.parent = n;
+	    replaceChild(n, r);
+	    r.left = n;
+	    n.parent = r;
+	    r.count = n.count;
+	    recount(n);
+	}
+	
+	private void rotateRight(Node n) {
+	    Node l = n.left;
+	    n.left = l.right;
+	    if (l.right != null) l.right.parent = n;
+	    replaceChild(n, l);
+	    l.right = n;
+	    n.parent = l;
+	    l.count = n.count;
+	    recount(n);
+	}
+	
+	/**
+	 * Put the replacement where the node hangs off its parent (or the root).
+	 * 
+	 * @param n        node being replaced, must not be null
+	 * @param r        node taking its place (may be null)
+	 */
+	private void replaceChild(Node n, Node r) {
+	    Node p = n.parent;
+	    if (r != null) r.parent = p;
+	    if (p == null) root = r;
+	    else if (p.left == n) p.left = r;
+	    else p.right = r;
+	}
+	
+	/**
+	 * Restore the red-black properties after linking in a new red node,
+	 * recoloring and rotating on the way up the parent links.
+	 * 
+	 * @param n        newly added red node, must not be null
+	 */
+	private void fixAfterAdd(Node n) {
+	    while (isRed(n.parent)) {
+	        Node p = n.parent;
+	        Node g = p.parent; // exists because the root is black
+	        if (p == g.left) {
+	            Node u = g.right;
+	            if (isRed(u)) {
+	                p.red = u.red = false;
+	                g.red = true;
+	                n = g;
+	            } else {
+	                if (n == p.right) {
+	                    rotateLeft(p);
+	                    n = p;
+	                    p = n.parent;
+	                }
+	                p.red = false;
+	                g.red = true;
+	                rotateRight(g);
+	            }
+	        } else {
+	            Node u = g.left;
+	            if (isRed(u)) {
+	                p.red = u.red = false;
+	                g.red = true;
+	                n = g;
+	            } else {
+	                if (n == p.left) {
+	                    rotateRight(p);
+	                    n = p;
+	                    p = n.parent;
+	                }
+	                p.red = false;
+	                g.red = true;
+	                rotateLeft(g);
+	            }
+	        }
+	    }
+	    root.red = false;
 	}
 
+	/**
+	 * Set the terrain at a location, adding a node if there is none.  
+	 * The search starts from a "finger" node before the location if 
+	 * given: it climbs only as far as the smallest subtree that holds the 
+	 * location, so a run of increasing locations shares the search path.
+	 * Does not change the version; whether a node was added can be told 
+	 * from the size.
+	 * 
+	 * @param finger   node at a location before loc, or null to start
+	 *                 from the root
+	 * @param loc      location, must not be null
+	 * @param t        terrain, must not be null
+	 * @return         node now holding the location, or null if it
+	 *                 already had this terrain
+	 */
+	private Node put(Node finger, HexCoordinate loc, Terrain t) {
+	    Node n = root;
+	    if (finger != null) {
+	        n = finger;
+	        while (n.parent != null && (n == n.parent.right || compare(loc, n.parent.loc) > 0)) n = n.parent;
+	        // loc is now in n's subtree or at its parent
+	        if (n.parent != null && compare(loc, n.parent.loc) == 0) n = n.parent;
+	    }
+	    Node parent = null;
+	    int c = 0;
+	    while (n != null) {
+	        c = compare(loc, n.loc);
+	        if (c == 0) {
+	            if (n.terrain == t) return null;
+	            Terrain old = n.terrain;
+	            n.terrain = t;
+	            --terrainCounts[old.ordinal()];
+	            ++terrainCounts[t.ordinal()];
+	            reindex(loc, old, t);
+	            if (publisher != null) publisher.changed(loc, old, t);
+	            return n;
+	        }
+	        parent = n;
+	        n = c < 0 ? n.left : n.right;
+	    }
+	    
+	    Node added = new Node(loc, t);
+	    added.red = true;
+	    added.parent = parent;
+	    if (parent == null) root = added;
+	    else if (c < 0) parent.left = added;
+	    else parent.right = added;
+	    for (Node p = parent; p != null; p = p.parent) ++p.count;
+	    fixAfterAdd(added);
+	    ++size;
+	    ++terrainCounts[t.ordinal()];
+	    reindex(loc, null, t);
+	    if (publisher != null) publisher.changed(loc, null, t);
+	    return added;
+	}
+	
+	/**
+	 * Add the tile, or change the terrain if there is already a tile at 
+	 * its location.  Only one descent of the tree is made: the search for
+	 * the location also finds where a new node would go.
+	 * 
+	 * @param t        tile to add, must not be null
+	 * @return         false if the terrain at that location is unchanged
+	 * @throws NullPointerException if the tile is null
+	 */
 	@Override
     public boolean add(HexTile t) {
         assert wellFormed() : "in public add()";
@@ -196,16 +523,137 @@ public class HexBoard extends AbstractCollection<HexTile>
         if (t == null) 
             throw new NullPointerException("No adding null tiles");
         
-        Terrain currentTerrain = terrainAt(t.getLocation());
-        if (currentTerrain == t.getTerrain())
-            return false;
-        root = _add(root, t);
-        if (currentTerrain == null) ++size;
+        if (put(null, t.getLocation(), t.getTerrain()) == null) return false;
         ++version;
+        assert wellFormed() && isBalanced() : "after public add()";
         return true;
     }
 
-	// new methods (used by the iterator)
+	/**
+	 * Restore the red-black properties after a black node has been 
+	 * unlinked, starting from the node that took its place (which is 
+	 * "doubly black").
+	 * 
+	 * @param x        node to start at, must not be null
+	 */
+	private void fixAfterRemove(Node x) {
+	    while (x != root && !isRed(x)) {
+	        Node p = x.parent;
+	        if (x == p.left) {
+	            Node sib = p.right; // exists because x is black
+	            if (isRed(sib)) {
+	                sib.red = false;
+	                p.red = true;
+	                rotateLeft(p);
+	                sib = p.right;
+	            }
+	            if (!isRed(sib.left) && !isRed(sib.right)) {
+	                sib.red = true;
+	                x = p;
+	            } else {
+	                if (!isRed(sib.right)) {
+	                    sib.left.red = false;
+	                    sib.red = true;
+	                    rotateRight(sib);
+	                    sib = p.right;
+	                }
+	                sib.red = p.red;
+	                p.red = false;
+	                sib.right.red = false;
+	                rotateLeft(p);
+	                x = root;
+	            }
+	        } else {
+	            Node sib = p.left;
+	            if (isRed(sib)) {
+	                sib.red = false;
+	                p.red = true;
+	                rotateRight(p);
+	                sib = p.left;
+	            }
+	            if (!isRed(sib.left) && !isRed(sib.right)) {
+	                sib.red = true;
+	                x = p;
+	            } else {
+	                if (!isRed(sib.left)) {
+	                    sib.right.red = false;
+	                    sib.red = true;
+	                    rotateLeft(sib);
+	                    sib = p.left;
+	                }
+	                sib.red = p.red;
+	                p.red = false;
+	                sib.left.red = false;
+	                rotateRight(p);
+	                x = root;
+	            }
+	        }
+	    }
+	    x.red = false;
+	}
+	
+	/**
+	 * Remove the contents of this node from the tree.  If the node has two
+	 * children, the contents of its successor are moved into it and the
+	 * successor's node is unlinked instead.
+	 * 
+	 * @param n        node in the tree, must not be null
+	 */
+	private void removeNode(Node n) {
+	    HexCoordinate loc = n.loc;
+	    Terrain t = n.terrain;
+	    if (n.left != null && n.right != null) {
+	        Node s = successor(n);
+	        n.loc = s.loc;
+	        n.terrain = s.terrain;
+	        n = s;
+	    }
+	    // n is about to go: it counts for nothing while the tree is fixed up
+	    n.count = 0;
+	    for (Node p = n.parent; p != null; p = p.parent) --p.count;
+	    Node child = n.left != null ? n.left : n.right;
+	    if (child != null) {
+	        replaceChild(n, child);
+	        if (!n.red) fixAfterRemove(child);
+	    } else if (n.parent == null) {
+	        root = null;
+	    } else {
+	        // fix up first while n still stands in for the missing child
+	        if (!n.red) fixAfterRemove(n);
+	        replaceChild(n, null);
+	    }
+	    n.left = n.right = n.parent = null;
+	    --size;
+	    --terrainCounts[t.ordinal()];
+	    reindex(loc, t, null);
+	    ++version;
+	    if (publisher != null) publisher.changed(loc, t, null);
+	}
+	
+	/**
+	 * Remove the tile if it is in the board (same location and terrain).
+	 * 
+	 * @param o        object to remove (null OK but pointless)
+	 * @return         whether the tile was removed
+	 */
+	@Override
+	public boolean remove(Object o) {
+	    assert wellFormed() : "in public remove()";
+	    if (!(o instanceof HexTile)) return false;
+	    HexTile tile = (HexTile) o;
+	    Node n = root;
+	    while (n != null) {
+	        int c = compare(tile.getLocation(), n.loc);
+	        if (c == 0) break;
+	        n = c < 0 ? n.left : n.right;
+	    }
+	    if (n == null || n.terrain != tile.getTerrain()) return false;
+	    removeNode(n);
+	    assert wellFormed() && isBalanced() : "after public remove()";
+	    return true;
+	}
+
+	// row queries
 	
 	/**
 	 * Return the "b" coordinate of the first tile in the hex board, or 
@@ -302,30 +750,102 @@ public class HexBoard extends AbstractCollection<HexTile>
         return rightMost;
 	}
 
-	// TODO: What else?
+	/**
+	 * Return the first node (in order) of the subtree.
+	 * 
+	 * @param n        subtree (may be null)
+	 * @return         leftmost node of the subtree, or null if empty
+	 */
+	private static Node firstNode(Node n) {
+	    if (n == null) return null;
+	    while (n.left != null) n = n.left;
+	    return n;
+	}
+	
+	/**
+	 * Return the node that comes after this one in order, following
+	 * parent links when there is no right subtree.
+	 * 
+	 * @param n        node in the tree, must not be null
+	 * @return         next node in order, or null if this is the last
+	 */
+	private static Node successor(Node n) {
+	    if (n.right != null) return firstNode(n.right);
+	    Node p = n.parent;
+	    while (p != null && n == p.right) {
+	        n = p;
+	        p = p.parent;
+	    }
+	    return p;
+	}
+	
+	/**
+	 * Return the last node (in order) of the subtree.
+	 * 
+	 * @param n        subtree (may be null)
+	 * @return         rightmost node of the subtree, or null if empty
+	 */
+	private static Node lastNode(Node n) {
+	    if (n == null) return null;
+	    while (n.right != null) n = n.right;
+	    return n;
+	}
 	
-	private class MyIterator implements Iterator<HexTile> {
-		// TODO: fields, constructor, any helper method(s) (see homework description)
+	/**
+	 * Return the node that comes before this one in order.
+	 * 
+	 * @param n        node in the tree, must not be null
+	 * @return         previous node in order, or null if this is the first
+	 */
+	private static Node predecessor(Node n) {
+	    if (n.left != null) return lastNode(n.left);
+	    Node p = n.parent;
+	    while (p != null && n == p.left) {
+	        n = p;
+	        p = p.parent;
+	    }
+	    return p;
+	}
+	
+	private class MyIterator implements BoardIterator {
 	    private int myVersion;
-	    private Integer currentRow;
-	    private Integer nextColumn;
+	    private Node next;
+	    private Node current; // last returned, if it can be removed
 	    
 	    public MyIterator() {
+	        this(firstNode(root));
+	    }
+	    
+	    /**
+	     * Create an iterator starting at the given node.
+	     * 
+	     * @param start    first node to return (null if none)
+	     */
+	    MyIterator(Node start) {
 	        myVersion = version;
-	        currentRow = null;
-	        nextColumn = null;
+	        next = start;
+	        current = null;
+	    }
+	    
+	    /**
+	     * Return the node to return after this one.  Iterators over 
+	     * part of the board override this to skip or stop early.
+	     * 
+	     * @param n        node just returned, must not be null
+	     * @return         next node to return, or null if no more
+	     */
+	    Node following(Node n) {
+	        return successor(n);
+	    }
+	    
+	    void setNext(Node n) {
+	        next = n;
 	    }
 		
 		@Override // required by Java
 		public boolean hasNext() {
 		    checkStale();
-		    if (size == 0) return false;
-		    if (currentRow == null && nextColumn == null) {
-		        currentRow = getFirstRow();
-	            nextColumn = getFirstInRow(currentRow).getLocation().a();
-		    }
-		    int lastColumnInRow = getLastInRow(currentRow).getLocation().a();
-		    return ((nextColumn <= lastColumnInRow) || (currentRow < getLastRow()));
+		    return next != null;
 		}
 
 		
@@ -333,47 +853,1476 @@ public class HexBoard extends AbstractCollection<HexTile>
 		public HexTile next() {
 		    if (!hasNext()) 
                 throw new NoSuchElementException("Iterator exhausted");
-           
-            checkStale();
-            
-            HexCoordinate mostRecent = new HexCoordinate(nextColumn, currentRow);
-            HexTile tile = null;
-            
-            // Iterate over rows
-            for (int r = currentRow; tile == null && r <= getLastRow(); ++r) {
-                
-                // Skips rows without tiles
-                if (getFirstInRow(r) != null) {
-                    
-                    // Row boundaries
-                    int firstInRow = getFirstInRow(r).getLocation().a();
-                    int lastInRow = getLastInRow(r).getLocation().a();
-                    
-                    // Iterate over columns
-                    for (int c = firstInRow; tile == null && c <= lastInRow; ++c) {
-                        
-                        HexCoordinate current = new HexCoordinate(c, r);
-                        
-                        // Accounts c starting before the mostRecent during first loop
-                        if (compare(current, mostRecent) >= 0 && (terrainAt(current) != null)) {
-                            tile = new HexTile(terrainAt(current), current);
-                            currentRow = r;
-                            nextColumn = c + 1;
-                        }
-                        
-                    }
-                }
-            }
-            
-            return tile;
+		    current = next;
+		    next = following(current);
+		    return new HexTile(current.terrain, current.loc);
+		}
+		
+		@Override // implementation
+		public void remove() {
+		    checkStale();
+		    if (current == null) 
+		        throw new IllegalStateException("Nothing to remove");
+		    // the successor's contents will be moved into current
+		    if (current.left != null && current.right != null && 
+		            next == firstNode(current.right)) next = current;
+		    removeNode(current);
+		    current = null;
+		    myVersion = version;
+		    assert wellFormed() && isBalanced() : "after iterator remove()";
 		}
                      
 
+		/**
+		 * Return whether the iteration is a contiguous run of the tree 
+		 * ending at {@link #endRank()}, so that skipping can use ranks.
+		 */
+		boolean ranked() {
+		    return true;
+		}
+		
+		/**
+		 * Return the rank just past the last node this iterator returns.
+		 */
+		int endRank() {
+		    return size;
+		}
+		
+		@Override // implementation
+		public long skip(long n) {
+		    checkStale();
+		    current = null;
+		    if (n <= 0 || next == null) return 0;
+		    if (!ranked()) {
+		        long k = 0;
+		        for (; k < n && next != null; ++k) next = following(next);
+		        return k;
+		    }
+		    int from = rankOfNode(next);
+		    long left = endRank() - from;
+		    if (n >= left) {
+		        next = null;
+		        return left;
+		    }
+		    next = select((int)(from + n));
+		    return n;
+		}
+		
 		private void checkStale() {
             if (myVersion != version) throw new ConcurrentModificationException("This iterator is stale.");
         }
 	}
 
+	// range queries
+	
+	/**
+	 * Compare the location (a,b) with a hex coordinate in row-major order.
+	 * 
+	 * @param a        column of the location
+	 * @param b        row of the location
+	 * @param h        hex coordinate, must not be null
+	 * @return         negative, zero or positive as (a,b) comes before,
+	 *                 is the same as, or comes after h.
+	 */
+	private static int compare(int a, int b, HexCoordinate h) {
+	    int c = Integer.compare(b, h.b());
+	    if (c == 0) c = Integer.compare(a, h.a());
+	    return c;
+	}
+	
+	/**
+	 * Return the node nearest the location (a,b) on one side of it.
+	 * 
+	 * @param a        column of the location
+	 * @param b        row of the location
+	 * @param above    whether to look after the location rather than before
+	 * @param inclusive whether a node at the location itself counts
+	 * @return         nearest node on that side, or null if none
+	 */
+	private Node nearNode(int a, int b, boolean above, boolean inclusive) {
+	    Node result = null;
+	    Node n = root;
+	    while (n != null) {
+	        int c = compare(a, b, n.loc);
+	        if (c == 0 && inclusive) return n;
+	        if (above ? c < 0 : c <= 0) {
+	            if (above) result = n;
+	            n = n.left;
+	        } else {
+	            if (!above) result = n;
+	            n = n.right;
+	        }
+	    }
+	    return result;
+	}
+	
+	/**
+	 * Return the first node at or after the location (a,b).
+	 * 
+	 * @param a        column of the location
+	 * @param b        row of the location
+	 * @return         node with the least location at or after (a,b), 
+	 *                 or null if none
+	 */
+	private Node ceilingNode(int a, int b) {
+	    return nearNode(a, b, true, true);
+	}
+	
+	/**
+	 * An iterator over the tiles in a band of rows, with a range of 
+	 * columns for each row.  When it leaves a row's range it searches for 
+	 * the next row's first column rather than stepping through the tiles 
+	 * outside.
+	 */
+	private abstract class RowsIterator extends MyIterator {
+	    private final int bMax;
+	    
+	    RowsIterator(int bMax) {
+	        super(null);
+	        this.bMax = bMax;
+	    }
+	    
+	    /**
+	     * Return the least column included in row b.
+	     */
+	    abstract int lowA(int b);
+	    
+	    /**
+	     * Return the greatest column included in row b.
+	     */
+	    abstract int highA(int b);
+	    
+	    /**
+	     * Start the iteration at the given row.
+	     */
+	    void start(int bMin) {
+	        setNext(seek(ceilingNode(lowA(bMin), bMin)));
+	    }
+	    
+	    /**
+	     * Return the first included node at or after n.
+	     */
+	    private Node seek(Node n) {
+	        while (n != null) {
+	            int b = n.loc.b();
+	            if (b > bMax) return null;
+	            if (n.loc.a() < lowA(b)) n = ceilingNode(lowA(b), b);
+	            else if (n.loc.a() <= highA(b)) return n;
+	            else if (b == Integer.MAX_VALUE) return null;
+	            else n = ceilingNode(lowA(b + 1), b + 1);
+	        }
+	        return null;
+	    }
+	    
+	    @Override
+	    Node following(Node n) {
+	        return seek(successor(n));
+	    }
+	    
+	    @Override
+	    boolean ranked() {
+	        return false;
+	    }
+	}
+	
+	/**
+	 * An iterator over the tiles in a rectangle of rows and columns.
+	 */
+	private class RectIterator extends RowsIterator {
+	    private final int aMin, aMax;
+	    
+	    RectIterator(int aMin, int aMax, int bMin, int bMax) {
+	        super(bMax);
+	        this.aMin = aMin;
+	        this.aMax = aMax;
+	        if (aMin <= aMax && bMin <= bMax) start(bMin);
+	    }
+	    
+	    @Override
+	    int lowA(int b) {
+	        return aMin;
+	    }
+	    
+	    @Override
+	    int highA(int b) {
+	        return aMax;
+	    }
+	}
+	
+	/**
+	 * An iterator over the tiles from a node up to a location.
+	 */
+	private class RangeIterator extends MyIterator {
+	    private final HexCoordinate to;
+	    private final boolean inclusive;
+	    
+	    /**
+	     * @param start    first node to return, or null if none
+	     * @param to       location to stop at, or null to go to the end
+	     * @param inclusive whether a tile at the location is included
+	     */
+	    RangeIterator(Node start, HexCoordinate to, boolean inclusive) {
+	        super(null);
+	        this.to = to;
+	        this.inclusive = inclusive;
+	        setNext(check(start));
+	    }
+	    
+	    private Node check(Node n) {
+	        if (n == null || to == null) return n;
+	        int c = compare(n.loc, to);
+	        return c < 0 || c == 0 && inclusive ? n : null;
+	    }
+	    
+	    @Override
+	    Node following(Node n) {
+	        return check(successor(n));
+	    }
+	    
+	    @Override
+	    int endRank() {
+	        return to == null ? size : rank(to, inclusive);
+	    }
+	}
+	
+	/**
+	 * Return the tiles in one row, in order.  Iterating takes O(log n + k) 
+	 * time for k tiles in the row.  The iterators are fail-fast and 
+	 * support removal.
+	 * 
+	 * @param b        row
+	 * @return         the tiles whose location has this b
+	 */
+	public Iterable<HexTile> tilesInRow(int b) {
+	    return tilesInRect(Integer.MIN_VALUE, Integer.MAX_VALUE, b, b);
+	}
+	
+	/**
+	 * Return the tiles from one location to another (both included) in 
+	 * row-major order.  This includes the end of the first row and 
+	 * the start of the last.  Iterating takes O(log n + k) time for 
+	 * k tiles.  The iterators are fail-fast and support removal.
+	 * 
+	 * @param from     first location, must not be null
+	 * @param to       last location, must not be null
+	 * @return         the tiles between the locations
+	 */
+	public Iterable<HexTile> tilesInRange(HexCoordinate from, HexCoordinate to) {
+	    if (from == null || to == null) throw new NullPointerException("range cannot have null ends");
+	    return () -> {
+	        assert wellFormed() : "in tilesInRange";
+	        return new RangeIterator(ceilingNode(from.a(), from.b()), to, true);
+	    };
+	}
+	
+	/**
+	 * Return the tiles with a from aMin to aMax and b from bMin to bMax 
+	 * (all included) in row-major order.  Iterating takes O(r log n + k) 
+	 * time for k tiles in r non-empty rows.  The iterators are 
+	 * fail-fast and support removal.
+	 * 
+	 * @param aMin     least column
+	 * @param aMax     greatest column
+	 * @param bMin     least row
+	 * @param bMax     greatest row
+	 * @return         the tiles in the rectangle
+	 */
+	public Iterable<HexTile> tilesInRect(int aMin, int aMax, int bMin, int bMax) {
+	    return () -> {
+	        assert wellFormed() : "in tilesInRect";
+	        return new RectIterator(aMin, aMax, bMin, bMax);
+	    };
+	}
+	
+	// hexagonal neighborhoods
+	
+	// A tile (a,b) is within r of (ca,cb) when |a-ca|, |b-cb| and 
+	// |(a-ca)-(b-cb)| are all at most r, which for each row is one 
+	// interval of columns.  Long arithmetic clips the hexagon at 
+	// the edges of the coordinates rather than wrapping around.
+	
+	private static int hexLowA(int ca, int cb, int r, int b) {
+	    long db = (long)b - cb;
+	    return (int)Math.max(Integer.MIN_VALUE, ca + Math.max(-(long)r, db - r));
+	}
+	
+	private static int hexHighA(int ca, int cb, int r, int b) {
+	    long db = (long)b - cb;
+	    return (int)Math.min(Integer.MAX_VALUE, ca + Math.min((long)r, db + r));
+	}
+	
+	private static int hexLowB(int cb, int r) {
+	    return (int)Math.max(Integer.MIN_VALUE, (long)cb - r);
+	}
+	
+	private static int hexHighB(int cb, int r) {
+	    return (int)Math.min(Integer.MAX_VALUE, (long)cb + r);
+	}
+	
+	/**
+	 * An iterator over the tiles in a hexagon.
+	 */
+	private class HexagonIterator extends RowsIterator {
+	    private final int ca, cb, r;
+	    
+	    HexagonIterator(HexCoordinate center, int radius) {
+	        super(hexHighB(center.b(), radius));
+	        ca = center.a();
+	        cb = center.b();
+	        r = radius;
+	        start(hexLowB(cb, r));
+	    }
+	    
+	    @Override
+	    int lowA(int b) {
+	        return hexLowA(ca, cb, r, b);
+	    }
+	    
+	    @Override
+	    int highA(int b) {
+	        return hexHighA(ca, cb, r, b);
+	    }
+	}
+	
+	/**
+	 * Return the tiles within the given distance of a center, in 
+	 * row-major order.  Each row of the hexagon is searched as a range,
+	 * so iterating takes O(r log n + k) time for k tiles, however many 
+	 * of the cells are empty.  The iterators are fail-fast and support 
+	 * removal.
+	 * 
+	 * @param center   center of the hexagon, must not be null
+	 * @param radius   greatest distance from the center, must not be negative
+	 * @return         the tiles whose distance from center is at most radius
+	 * @throws IllegalArgumentException if the radius is negative
+	 */
+	public Iterable<HexTile> tilesWithin(HexCoordinate center, int radius) {
+	    if (center == null) throw new NullPointerException("center cannot be null");
+	    if (radius < 0) throw new IllegalArgumentException("radius cannot be negative: " + radius);
+	    return () -> {
+	        assert wellFormed() : "in tilesWithin";
+	        return new HexagonIterator(center, radius);
+	    };
+	}
+	
+	/**
+	 * Hand each tile within the given distance of a center to a visitor,
+	 * in row-major order.  This is the same search as 
+	 * {@link #tilesWithin(HexCoordinate, int)} but creates no objects, 
+	 * so it suits code that runs every frame.  The visitor must not
+	 * change the board.
+	 * 
+	 * @param center   center of the hexagon, must not be null
+	 * @param radius   greatest distance from the center, must not be negative
+	 * @param v        visitor to give tiles to, must not be null
+	 * @return         number of tiles visited
+	 * @throws IllegalArgumentException if the radius is negative
+	 * @throws ConcurrentModificationException if the visitor changed the board
+	 */
+	public int forEachWithin(HexCoordinate center, int radius, TileVisitor v) {
+	    assert wellFormed() : "invariant failed at start of forEachWithin";
+	    if (radius < 0) throw new IllegalArgumentException("radius cannot be negative: " + radius);
+	    if (v == null) throw new NullPointerException("visitor cannot be null");
+	    int ca = center.a(), cb = center.b();
+	    int bMin = hexLowB(cb, radius), bMax = hexHighB(cb, radius);
+	    int myVersion = version;
+	    int count = 0;
+	    Node n = ceilingNode(hexLowA(ca, cb, radius, bMin), bMin);
+	    while (n != null) {
+	        int b = n.loc.b();
+	        if (b > bMax) break;
+	        int a = n.loc.a();
+	        int lo = hexLowA(ca, cb, radius, b);
+	        if (a < lo) n = ceilingNode(lo, b);
+	        else if (a <= hexHighA(ca, cb, radius, b)) {
+	            v.visit(a, b, n.terrain);
+	            if (version != myVersion) throw new ConcurrentModificationException("board changed while visiting");
+	            ++count;
+	            n = successor(n);
+	        }
+	        else if (b == Integer.MAX_VALUE) break;
+	        else n = ceilingNode(hexLowA(ca, cb, radius, b + 1), b + 1);
+	    }
+	    return count;
+	}
+	
+	// navigation
+	
+	private static HexTile tileOf(Node n) {
+	    return n == null ? null : new HexTile(n.terrain, n.loc);
+	}
+	
+	/**
+	 * Return the first tile in row-major order.
+	 * 
+	 * @return         tile with the least location
+	 * @throws NoSuchElementException if the board is empty
+	 */
+	public HexTile first() {
+	    assert wellFormed() : "in first()";
+	    if (root == null) throw new NoSuchElementException("board is empty");
+	    return tileOf(firstNode(root));
+	}
+	
+	/**
+	 * Return the last tile in row-major order.
+	 * 
+	 * @return         tile with the greatest location
+	 * @throws NoSuchElementException if the board is empty
+	 */
+	public HexTile last() {
+	    assert wellFormed() : "in last()";
+	    if (root == null) throw new NoSuchElementException("board is empty");
+	    return tileOf(lastNode(root));
+	}
+	
+	/**
+	 * Return the tile at the greatest location at or before h.
+	 * 
+	 * @param h        location to look from, must not be null
+	 * @return         tile at or before h, or null if none
+	 */
+	public HexTile floor(HexCoordinate h) {
+	    assert wellFormed() : "in floor()";
+	    return tileOf(nearNode(h.a(), h.b(), false, true));
+	}
+	
+	/**
+	 * Return the tile at the least location at or after h.
+	 * 
+	 * @param h        location to look from, must not be null
+	 * @return         tile at or after h, or null if none
+	 */
+	public HexTile ceiling(HexCoordinate h) {
+	    assert wellFormed() : "in ceiling()";
+	    return tileOf(nearNode(h.a(), h.b(), true, true));
+	}
+	
+	/**
+	 * Return the tile at the least location strictly after h.
+	 * 
+	 * @param h        location to look from, must not be null
+	 * @return         tile after h, or null if none
+	 */
+	public HexTile higher(HexCoordinate h) {
+	    assert wellFormed() : "in higher()";
+	    return tileOf(nearNode(h.a(), h.b(), true, false));
+	}
+	
+	/**
+	 * Return the tile at the greatest location strictly before h.
+	 * 
+	 * @param h        location to look from, must not be null
+	 * @return         tile before h, or null if none
+	 */
+	public HexTile lower(HexCoordinate h) {
+	    assert wellFormed() : "in lower()";
+	    return tileOf(nearNode(h.a(), h.b(), false, false));
+	}
+	
+	/**
+	 * Remove and return the first tile in row-major order.
+	 * 
+	 * @return         tile that was first, or null if the board is empty
+	 */
+	public HexTile pollFirst() {
+	    assert wellFormed() : "in pollFirst()";
+	    return poll(firstNode(root));
+	}
+	
+	/**
+	 * Remove and return the last tile in row-major order.
+	 * 
+	 * @return         tile that was last, or null if the board is empty
+	 */
+	public HexTile pollLast() {
+	    assert wellFormed() : "in pollLast()";
+	    return poll(lastNode(root));
+	}
+	
+	private HexTile poll(Node n) {
+	    if (n == null) return null;
+	    HexTile result = tileOf(n);
+	    removeNode(n);
+	    assert wellFormed() && isBalanced() : "after poll";
+	    return result;
+	}
+	
+	/**
+	 * Return a view of the tiles before a location.  See
+	 * {@link #subBoard(HexCoordinate, HexCoordinate)}.
+	 * 
+	 * @param to       location to end before, must not be null
+	 * @return         live view of the tiles strictly before to
+	 */
+	public Collection<HexTile> headBoard(HexCoordinate to) {
+	    if (to == null) throw new NullPointerException("bound cannot be null");
+	    return new SubBoard(null, to);
+	}
+	
+	/**
+	 * Return a view of the tiles from a location on.  See
+	 * {@link #subBoard(HexCoordinate, HexCoordinate)}.
+	 * 
+	 * @param from     location to start at, must not be null
+	 * @return         live view of the tiles at or after from
+	 */
+	public Collection<HexTile> tailBoard(HexCoordinate from) {
+	    if (from == null) throw new NullPointerException("bound cannot be null");
+	    return new SubBoard(from, null);
+	}
+	
+	/**
+	 * Return a view of the tiles from one location (included) to another
+	 * (not included) in row-major order.  The view is live: changes to 
+	 * the board show through it, and tiles can be added to or removed 
+	 * from the board through it, as long as they are in range.
+	 * Lookups, adds, removes and finding the size take O(log n) time, 
+	 * and the view's iterators are fail-fast and can skip like the board's.
+	 * 
+	 * @param from     location to start at, must not be null
+	 * @param to       location to end before, must not be null
+	 * @return         live view of the tiles in the range
+	 * @throws IllegalArgumentException if from comes after to
+	 */
+	public Collection<HexTile> subBoard(HexCoordinate from, HexCoordinate to) {
+	    if (from == null || to == null) throw new NullPointerException("bounds cannot be null");
+	    if (compare(from, to) > 0) throw new IllegalArgumentException("from " + from + " comes after to " + to);
+	    return new SubBoard(from, to);
+	}
+	
+	/**
+	 * A view of the part of the board from lo (included) to hi (not 
+	 * included), where a null bound means no limit on that side.
+	 */
+	private class SubBoard extends AbstractCollection<HexTile> {
+	    private final HexCoordinate lo, hi;
+	    
+	    SubBoard(HexCoordinate lo, HexCoordinate hi) {
+	        this.lo = lo;
+	        this.hi = hi;
+	    }
+	    
+	    private boolean inRange(HexCoordinate h) {
+	        return (lo == null || compare(h, lo) >= 0) && (hi == null || compare(h, hi) < 0);
+	    }
+	    
+	    private Node lowest() {
+	        return lo == null ? firstNode(root) : ceilingNode(lo.a(), lo.b());
+	    }
+	    
+	    @Override // required by Java
+	    public BoardIterator iterator() {
+	        assert wellFormed() : "in view iterator()";
+	        return new RangeIterator(lowest(), hi, false);
+	    }
+	    
+	    @Override // required by Java
+	    public int size() {
+	        assert wellFormed() : "in view size()";
+	        int end = hi == null ? size : rank(hi, false);
+	        return Math.max(0, end - (lo == null ? 0 : rank(lo, false)));
+	    }
+	    
+	    @Override // efficiency
+	    public boolean isEmpty() {
+	        return !iterator().hasNext();
+	    }
+	    
+	    @Override // efficiency
+	    public boolean contains(Object o) {
+	        if (!(o instanceof HexTile)) return false;
+	        return inRange(((HexTile) o).getLocation()) && HexBoard.this.contains(o);
+	    }
+	    
+	    @Override // implementation
+	    public boolean add(HexTile t) {
+	        if (t == null) throw new NullPointerException("No adding null tiles");
+	        if (!inRange(t.getLocation())) throw new IllegalArgumentException("tile out of range: " + t);
+	        return HexBoard.this.add(t);
+	    }
+	    
+	    @Override // efficiency
+	    public boolean remove(Object o) {
+	        if (!(o instanceof HexTile)) return false;
+	        return inRange(((HexTile) o).getLocation()) && HexBoard.this.remove(o);
+	    }
+	}
+	
+	// order statistics
+	
+	/**
+	 * Return the number of nodes before this one in order, adding up 
+	 * the left subtrees passed on the way up.
+	 * 
+	 * @param n        node in the tree, must not be null
+	 * @return         index of the node
+	 */
+	private static int rankOfNode(Node n) {
+	    int r = count(n.left);
+	    for (Node p = n.parent; p != null; n = p, p = p.parent) {
+	        if (n == p.right) r += count(p.left) + 1;
+	    }
+	    return r;
+	}
+	
+	/**
+	 * Return the node with the given index.
+	 * 
+	 * @param i        index, must be in range
+	 * @return         node with i nodes before it
+	 */
+	private Node select(int i) {
+	    Node n = root;
+	    for (;;) {
+	        int lc = count(n.left);
+	        if (i < lc) n = n.left;
+	        else if (i == lc) return n;
+	        else {
+	            i -= lc + 1;
+	            n = n.right;
+	        }
+	    }
+	}
+	
+	/**
+	 * Return the number of tiles before (or at, if inclusive) a location.
+	 * 
+	 * @param h        location, must not be null
+	 * @param inclusive whether to count a tile at the location
+	 * @return         number of tiles with smaller locations (or equal)
+	 */
+	private int rank(HexCoordinate h, boolean inclusive) {
+	    int r = 0;
+	    Node n = root;
+	    while (n != null) {
+	        int c = compare(h, n.loc);
+	        if (c < 0 || c == 0 && !inclusive) n = n.left;
+	        else {
+	            r += count(n.left) + 1;
+	            n = n.right;
+	        }
+	    }
+	    return r;
+	}
+	
+	/**
+	 * Return the tile at the given index in row-major order.
+	 * 
+	 * @param index    index of the tile, from 0 to size()-1
+	 * @return         tile with index tiles before it
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public HexTile get(int index) {
+	    assert wellFormed() : "in get()";
+	    if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + " for size " + size);
+	    return tileOf(select(index));
+	}
+	
+	/**
+	 * Return the number of tiles before a location in row-major order.
+	 * If there is a tile at the location, this is its index.
+	 * 
+	 * @param h        location, must not be null
+	 * @return         number of tiles with earlier locations
+	 */
+	public int rankOf(HexCoordinate h) {
+	    assert wellFormed() : "in rankOf()";
+	    if (h == null) throw new NullPointerException("location cannot be null");
+	    return rank(h, false);
+	}
+	
+	// terrain counts
+	
+	/**
+	 * Return the number of tiles with the given terrain.  The counts are
+	 * kept up to date as the board changes, so this takes O(1) time.
+	 * 
+	 * @param t        terrain, must not be null
+	 * @return         number of tiles with this terrain
+	 */
+	public int countOf(Terrain t) {
+	    assert wellFormed() : "in countOf()";
+	    if (t == null) throw new NullPointerException("terrain cannot be null");
+	    return terrainCounts[t.ordinal()];
+	}
+	
+	/**
+	 * Return the number of tiles with each terrain, in O(1) time.  The
+	 * result is a new map that later changes to the board do not affect.
+	 * 
+	 * @return         map from every terrain (including those with no 
+	 *                 tiles) to its number of tiles
+	 */
+	public Map<Terrain, Integer> terrainHistogram() {
+	    assert wellFormed() : "in terrainHistogram()";
+	    Map<Terrain, Integer> result = new EnumMap<>(Terrain.class);
+	    for (Terrain t : Terrain.values()) result.put(t, terrainCounts[t.ordinal()]);
+	    return result;
+	}
+	
+	// terrain index
+	
+	/**
+	 * Move a location to another terrain's part of the index, if there
+	 * is an index.
+	 * 
+	 * @param loc      location, must not be null
+	 * @param from     terrain it had, or null if it had no tile
+	 * @param to       terrain it has now, or null if it has no tile
+	 */
+	private void reindex(HexCoordinate loc, Terrain from, Terrain to) {
+	    if (terrainIndex == null) return;
+	    if (from != null) terrainIndex[from.ordinal()].remove(loc);
+	    if (to != null) terrainIndex[to.ordinal()].add(loc);
+	}
+	
+	/**
+	 * Return whether this board keeps an index by terrain.
+	 * 
+	 * @return         whether it was created with a terrain index
+	 * @see #HexBoard(boolean)
+	 */
+	public boolean isTerrainIndexed() {
+	    return terrainIndex != null;
+	}
+	
+	private TreeSet<HexCoordinate> indexOf(Terrain t) {
+	    if (t == null) throw new NullPointerException("terrain cannot be null");
+	    if (terrainIndex == null) throw new IllegalStateException("board has no terrain index");
+	    return terrainIndex[t.ordinal()];
+	}
+	
+	/**
+	 * Return the tiles with the given terrain in row-major order.
+	 * Iterating takes O(k) time for k tiles.  The iterators are fail-fast
+	 * and support removal.
+	 * 
+	 * @param t        terrain, must not be null
+	 * @return         the tiles with this terrain
+	 * @throws IllegalStateException if the board has no terrain index
+	 */
+	public Iterable<HexTile> tilesOf(Terrain t) {
+	    TreeSet<HexCoordinate> locs = indexOf(t);
+	    return () -> {
+	        assert wellFormed() : "in tilesOf";
+	        return new TerrainIterator(t, locs.iterator());
+	    };
+	}
+	
+	/**
+	 * Return the tiles with the given terrain from one location to another
+	 * (both included) in row-major order, as for 
+	 * {@link #tilesInRange(HexCoordinate, HexCoordinate)}.  Iterating takes
+	 * O(log k + m) time for m of the k tiles with this terrain.  The 
+	 * iterators are fail-fast and support removal.
+	 * 
+	 * @param t        terrain, must not be null
+	 * @param from     first location, must not be null
+	 * @param to       last location, must not be null
+	 * @return         the tiles with this terrain between the locations
+	 * @throws IllegalStateException if the board has no terrain index
+	 */
+	public Iterable<HexTile> tilesOf(Terrain t, HexCoordinate from, HexCoordinate to) {
+	    if (from == null || to == null) throw new NullPointerException("range cannot have null ends");
+	    TreeSet<HexCoordinate> locs = indexOf(t);
+	    return () -> {
+	        assert wellFormed() : "in tilesOf";
+	        if (compare(from, to) > 0) return new TerrainIterator(t, Collections.<HexCoordinate>emptyIterator());
+	        return new TerrainIterator(t, locs.subSet(from, true, to, true).iterator());
+	    };
+	}
+	
+	private class TerrainIterator implements Iterator<HexTile> {
+	    private final Terrain terrain;
+	    private final Iterator<HexCoordinate> locs;
+	    private HexCoordinate current; // last returned, if it can be removed
+	    private int myVersion = version;
+	    
+	    TerrainIterator(Terrain terrain, Iterator<HexCoordinate> locs) {
+	        this.terrain = terrain;
+	        this.locs = locs;
+	    }
+	    
+	    private void checkStale() {
+	        if (myVersion != version) throw new ConcurrentModificationException("This iterator is stale.");
+	    }
+	    
+	    @Override // required by Java
+	    public boolean hasNext() {
+	        checkStale();
+	        return locs.hasNext();
+	    }
+	    
+	    @Override // required by Java
+	    public HexTile next() {
+	        if (!hasNext()) throw new NoSuchElementException("Iterator exhausted");
+	        current = locs.next();
+	        return new HexTile(terrain, current);
+	    }
+	    
+	    @Override // implementation
+	    public void remove() {
+	        checkStale();
+	        if (current == null) throw new IllegalStateException("Nothing to remove");
+	        // take it out of the index through our own iterator first,
+	        // so that the board's removal finds nothing left to do there
+	        locs.remove();
+	        HexBoard.this.remove(new HexTile(terrain, current));
+	        current = null;
+	        myVersion = version;
+	    }
+	}
+	
+	// parallel traversal
+	
+	/** The order of tiles in a hex board: by row, then by column. */
+	public static final Comparator<HexTile> ROW_MAJOR = (t1, t2) -> compare(t1.getLocation(), t2.getLocation());
+	
+	/**
+	 * Return a spliterator over the tiles in row-major order.  It splits
+	 * in half by rank using the subtree counts, so each split takes 
+	 * O(log n) time and the parts have exact sizes, which lets parallel
+	 * streams divide the work evenly.  It is fail-fast: a change to the 
+	 * board during traversal is reported when the traversal ends.
+	 * 
+	 * @return         spliterator over the board
+	 */
+	@Override // efficiency
+	public Spliterator<HexTile> spliterator() {
+	    assert wellFormed() : "in spliterator()";
+	    return new MySpliterator(0, -1, version);
+	}
+	
+	private class MySpliterator implements Spliterator<HexTile> {
+	    private int lo, hi; // ranks still to be returned, hi of -1 meaning not bound yet
+	    private Node next; // node with rank lo, found when first needed
+	    private int expectedVersion;
+	    
+	    MySpliterator(int lo, int hi, int expectedVersion) {
+	        this.lo = lo;
+	        this.hi = hi;
+	        this.expectedVersion = expectedVersion;
+	    }
+	    
+	    private int end() {
+	        if (hi < 0) {
+	            hi = size;
+	            expectedVersion = version;
+	        }
+	        return hi;
+	    }
+	    
+	    @Override // required by Java
+	    public boolean tryAdvance(Consumer<? super HexTile> action) {
+	        if (action == null) throw new NullPointerException("action cannot be null");
+	        if (lo >= end()) return false;
+	        if (version != expectedVersion) throw new ConcurrentModificationException("board changed during traversal");
+	        if (next == null) next = select(lo);
+	        Node n = next;
+	        ++lo;
+	        next = lo < hi ? successor(n) : null;
+	        action.accept(new HexTile(n.terrain, n.loc));
+	        return true;
+	    }
+	    
+	    @Override // efficiency
+	    public void forEachRemaining(Consumer<? super HexTile> action) {
+	        if (action == null) throw new NullPointerException("action cannot be null");
+	        int end = end();
+	        if (lo >= end) return;
+	        Node n = next == null ? select(lo) : next;
+	        for (int i = lo; i < end && n != null; ++i, n = successor(n)) {
+	            action.accept(new HexTile(n.terrain, n.loc));
+	        }
+	        lo = end;
+	        next = null;
+	        if (version != expectedVersion) throw new ConcurrentModificationException("board changed during traversal");
+	    }
+	    
+	    @Override // required by Java
+	    public Spliterator<HexTile> trySplit() {
+	        int end = end();
+	        int mid = (lo + end) >>> 1;
+	        if (mid <= lo) return null;
+	        Spliterator<HexTile> prefix = new MySpliterator(lo, mid, expectedVersion);
+	        lo = mid;
+	        next = null;
+	        return prefix;
+	    }
+	    
+	    @Override // required by Java
+	    public long estimateSize() {
+	        return end() - lo;
+	    }
+	    
+	    @Override // required by Java
+	    public int characteristics() {
+	        return SIZED | SUBSIZED | SORTED | DISTINCT | NONNULL | ORDERED;
+	    }
+	    
+	    @Override // required for SORTED
+	    public Comparator<? super HexTile> getComparator() {
+	        return ROW_MAJOR;
+	    }
+	}
+	
+	// reads for optimistic readers
+	
+	/** 
+	 * More steps than any search of a red-black tree of up to 2^31 nodes 
+	 * takes (its height is at most 2 log(n+1)).
+	 */
+	private static final int MAX_STEPS = 64;
+	
+	/**
+	 * Look up the terrain without checking the invariant, for a reader 
+	 * that may run while another thread changes the board and validates 
+	 * its result afterwards (see {@link StampedHexBoard}).  A search that
+	 * sees a tree in the middle of a change may give any answer or throw
+	 * a runtime exception, but always ends.
+	 * 
+	 * @param c        hex coordinate to look for, must not be null
+	 * @return         terrain at that coordinate, or null if nothing
+	 */
+	Terrain terrainAtUnchecked(HexCoordinate c) {
+	    return terrainAtUnchecked(c.a(), c.b());
+	}
+	
+	/**
+	 * Look up the terrain at (a,b) without checking the invariant, as for
+	 * {@link #terrainAtUnchecked(HexCoordinate)}.
+	 * 
+	 * @param a        column of the location
+	 * @param b        row of the location
+	 * @return         terrain at that location, or null if nothing
+	 */
+	Terrain terrainAtUnchecked(int a, int b) {
+	    Node n = root;
+	    for (int steps = 0; n != null && steps < MAX_STEPS; ++steps) {
+	        int cmp = compare(a, b, n.loc);
+	        if (cmp == 0) return n.terrain;
+	        n = cmp < 0 ? n.left : n.right;
+	    }
+	    return null;
+	}
+	
+	/**
+	 * Return the number of tiles without checking the invariant.
+	 * 
+	 * @return         size field
+	 */
+	int sizeUnchecked() {
+	    return size;
+	}
+	
+	/**
+	 * Return the number of tiles with a terrain without checking the 
+	 * invariant.
+	 * 
+	 * @param t        terrain, must not be null
+	 * @return         count kept for this terrain
+	 */
+	int countOfUnchecked(Terrain t) {
+	    return terrainCounts[t.ordinal()];
+	}
+	
+	// building from sorted tiles
+	
+	/**
+	 * Return the depth at which nodes must be red so that a tree built by 
+	 * {@link #buildTree} is a red-black tree: the bottom level, unless the 
+	 * tree is perfectly full.
+	 * 
+	 * @param n        number of nodes in the tree
+	 * @return         depth (root is 0) of the red nodes
+	 */
+	private static int redLevel(int n) {
+	    int level = 0;
+	    for (int m = n - 1; m >= 0; m = m / 2 - 1) ++level;
+	    return level;
+	}
+	
+	/**
+	 * Build a balanced tree from tiles already in row-major order, taking
+	 * linear time.
+	 * 
+	 * @param locs     locations in strictly increasing order
+	 * @param ters     terrains for those locations
+	 * @param lo       index of first tile to use
+	 * @param hi       index of last tile to use
+	 * @param level    depth of the root of this subtree
+	 * @param red      depth at which nodes are colored red
+	 * @return         root of the subtree, or null if lo > hi
+	 */
+	private static Node buildTree(HexCoordinate[] locs, Terrain[] ters, int lo, int hi, int level, int red) {
+	    if (lo > hi) return null;
+	    int mid = (lo + hi) >>> 1;
+	    Node n = new Node(locs[mid], ters[mid]);
+	    n.red = level == red;
+	    n.count = hi - lo + 1;
+	    n.left = buildTree(locs, ters, lo, mid - 1, level + 1, red);
+	    if (n.left != null) n.left.parent = n;
+	    n.right = buildTree(locs, ters, mid + 1, hi, level + 1, red);
+	    if (n.right != null) n.right.parent = n;
+	    return n;
+	}
+	
+	/**
+	 * Replace the contents of this board with the first n of the given 
+	 * tiles, which must be in row-major order with no repeated locations.
+	 * The terrain counts are recomputed, but the terrain index (if any)
+	 * is left for the caller to bring up to date.
+	 * 
+	 * @param locs     locations in strictly increasing order
+	 * @param ters     terrains for those locations
+	 * @param n        number of tiles
+	 */
+	private void setSorted(HexCoordinate[] locs, Terrain[] ters, int n) {
+	    root = buildTree(locs, ters, 0, n - 1, 0, redLevel(n));
+	    size = n;
+	    Arrays.fill(terrainCounts, 0);
+	    for (int i=0; i < n; ++i) ++terrainCounts[ters[i].ordinal()];
+	    ++version;
+	    assert wellFormed() : "after building from sorted";
+	}
+	
+	/**
+	 * Tiles sorted into row-major order with no repeated locations.
+	 */
+	private static class Batch {
+	    final HexCoordinate[] locs;
+	    final Terrain[] ters;
+	    int n;
+	    Batch(int capacity) {
+	        locs = new HexCoordinate[capacity];
+	        ters = new Terrain[capacity];
+	    }
+	}
+	
+	/**
+	 * Sort the tiles, later tiles replacing earlier ones at the same 
+	 * location.  Tiles from a hex board are already in order.
+	 * 
+	 * @param c        tiles to sort, must not be null
+	 * @return         sorted tiles
+	 * @throws NullPointerException if any of the tiles is null
+	 */
+	private static Batch sortBatch(Collection<? extends HexTile> c) {
+	    if (c instanceof HexBoard) {
+	        HexBoard hb = (HexBoard) c;
+	        Batch b = new Batch(hb.size);
+	        for (Node n = firstNode(hb.root); n != null; n = successor(n)) {
+	            b.locs[b.n] = n.loc;
+	            b.ters[b.n++] = n.terrain;
+	        }
+	        return b;
+	    }
+	    HexTile[] tiles = c.toArray(new HexTile[c.size()]);
+	    int m = tiles.length;
+	    long[] keys = new long[m];
+	    for (int i=0; i < m; ++i) {
+	        if (tiles[i] == null) throw new NullPointerException("No adding null tiles");
+	        keys[i] = HexKeys.key(tiles[i].getLocation()) ^ Long.MIN_VALUE; // unsigned order
+	    }
+	    int[] order = radixSort(keys);
+	    Batch b = new Batch(m);
+	    for (int i=0; i < m; ++i) {
+	        HexTile t = tiles[order[i]];
+	        // a later tile at the same location wins
+	        if (i > 0 && keys[order[i-1]] == keys[order[i]]) --b.n;
+	        b.locs[b.n] = t.getLocation();
+	        b.ters[b.n++] = t.getTerrain();
+	    }
+	    return b;
+	}
+	
+	/**
+	 * Return the indices of the keys in increasing unsigned order, 
+	 * equal keys in their original order.  This is a radix sort a byte 
+	 * at a time from the lowest, skipping bytes that all the keys share 
+	 * (such as the high bytes of rows near each other), so it takes 
+	 * O(m) time.
+	 * 
+	 * @param keys     keys to sort, must not be null
+	 * @return         indices of the keys in sorted order
+	 */
+	private static int[] radixSort(long[] keys) {
+	    int m = keys.length;
+	    int[] order = new int[m];
+	    for (int i=0; i < m; ++i) order[i] = i;
+	    int[] other = new int[m];
+	    int[] counts = new int[257];
+	    for (int shift = 0; shift < 64; shift += 8) {
+	        Arrays.fill(counts, 0);
+	        for (long k : keys) ++counts[(int)(k >>> shift & 0xFF) + 1];
+	        if (m == 0 || counts[(int)(keys[0] >>> shift & 0xFF) + 1] == m) continue;
+	        for (int i=1; i < 257; ++i) counts[i] += counts[i-1];
+	        for (int i : order) other[counts[(int)(keys[i] >>> shift & 0xFF)]++] = i;
+	        int[] t = order;
+	        order = other;
+	        other = t;
+	    }
+	    return order;
+	}
+	
+	/**
+	 * The number of tiles a batch added and changed.
+	 */
+	public static final class BatchResult {
+	    private final int inserted, updated;
+	    
+	    BatchResult(int inserted, int updated) {
+	        this.inserted = inserted;
+	        this.updated = updated;
+	    }
+	    
+	    /**
+	     * Return the number of tiles at locations that had none before.
+	     * @return         number of tiles inserted
+	     */
+	    public int inserted() {
+	        return inserted;
+	    }
+	    
+	    /**
+	     * Return the number of locations whose terrain was changed.
+	     * @return         number of tiles updated
+	     */
+	    public int updated() {
+	        return updated;
+	    }
+	    
+	    /**
+	     * Return whether the batch changed the board.
+	     * @return         whether anything was inserted or updated
+	     */
+	    public boolean changed() {
+	        return inserted + updated > 0;
+	    }
+	    
+	    @Override // implementation
+	    public String toString() {
+	        return inserted + " inserted, " + updated + " updated";
+	    }
+	}
+	
+	/**
+	 * Add all the tiles, later tiles replacing earlier ones at the same 
+	 * location, as one change: the version changes once, so iterators 
+	 * become stale once, and the invariant is checked once.  The tiles are 
+	 * sorted first.  If there are only a few compared to the size of the 
+	 * board, they are added in order, each search starting from the 
+	 * previous tile's node rather than the root, taking O(m log n) time at 
+	 * worst and less when the tiles are close together.  Otherwise they 
+	 * are merged with the tiles already here and a new balanced tree is 
+	 * built, taking O(n + m log m) time.  Tiles from another hex board are 
+	 * already sorted, which saves the m log m.
+	 * 
+	 * @param c        tiles to add, must not be null or contain null
+	 * @return         how many tiles were inserted and how many updated
+	 * @throws NullPointerException if any of the tiles is null (the board
+	 *                 is then unchanged)
+	 */
+	public BatchResult applyBatch(Collection<? extends HexTile> c) {
+	    assert wellFormed() : "in applyBatch";
+	    if (c == this) return new BatchResult(0, 0);
+	    Batch b = sortBatch(c);
+	    int k = b.n;
+	    int inserted = 0, updated = 0;
+	    if ((long) k * 32 < size) {
+	        Node finger = null;
+	        for (int i=0; i < k; ++i) {
+	            int before = size;
+	            Node n = put(finger, b.locs[i], b.ters[i]);
+	            if (n == null) continue; // the old finger is still before the next
+	            finger = n;
+	            if (size > before) ++inserted;
+	            else ++updated;
+	        }
+	        if (inserted + updated > 0) ++version;
+	        assert wellFormed() && isBalanced() : "after applyBatch";
+	        return new BatchResult(inserted, updated);
+	    }
+	    
+	    HexCoordinate[] locs = new HexCoordinate[size + k];
+	    Terrain[] ters = new Terrain[size + k];
+	    int count = 0;
+	    Node p = firstNode(root);
+	    int i = 0;
+	    while (p != null || i < k) {
+	        int cmp = p == null ? 1 : i == k ? -1 : compare(p.loc, b.locs[i]);
+	        if (cmp < 0) {
+	            locs[count] = p.loc;
+	            ters[count++] = p.terrain;
+	            p = successor(p);
+	        } else {
+	            if (cmp == 0) {
+	                if (p.terrain != b.ters[i]) {
+	                    ++updated;
+	                    reindex(p.loc, p.terrain, b.ters[i]);
+	                    if (publisher != null) publisher.changed(p.loc, p.terrain, b.ters[i]);
+	                }
+	                p = successor(p);
+	            } else {
+	                ++inserted;
+	                reindex(b.locs[i], null, b.ters[i]);
+	                if (publisher != null) publisher.changed(b.locs[i], null, b.ters[i]);
+	            }
+	            locs[count] = b.locs[i];
+	            ters[count++] = b.ters[i++];
+	        }
+	    }
+	    if (inserted + updated > 0) setSorted(locs, ters, count);
+	    assert wellFormed() && isBalanced() : "after applyBatch";
+	    return new BatchResult(inserted, updated);
+	}
+	
+	/**
+	 * Add all the tiles, later tiles replacing earlier ones at the same 
+	 * location.  See {@link #applyBatch(Collection)}.
+	 * 
+	 * @param c        tiles to add, must not be null or contain null
+	 * @return         whether the board changed
+	 * @throws NullPointerException if any of the tiles is null (the board
+	 *                 is then unchanged)
+	 */
+	@Override
+	public boolean addAll(Collection<? extends HexTile> c) {
+	    return applyBatch(c).changed();
+	}
+	
+	// change notification
+	
+	/**
+	 * Return a publisher of the changes made to this board: each tile 
+	 * added, removed (including by {@link #clear()}) or given a new 
+	 * terrain becomes a {@link TileChange}.  Changes are delivered on the 
+	 * common pool as subscribers request them; until then each subscriber's
+	 * changes wait in a buffer of {@link Flow#defaultBufferSize()} 
+	 * locations, where changes to the same location are merged (and 
+	 * dropped altogether if the location ends up as it started).  A 
+	 * subscriber that falls behind by more locations than that is sent 
+	 * {@link TileChange#reset()} in place of all it missed.  Changing the
+	 * board never waits for a subscriber.  While there are no subscribers,
+	 * changes cost nothing but a check.
+	 * <p>
+	 * This board is not thread-safe: subscribers must not look at it from
+	 * the delivery threads while it may be changing.
+	 * 
+	 * @return         publisher of changes to this board
+	 */
+	public Flow.Publisher<TileChange> changes() {
+	    if (publisher == null) publisher = new ChangePublisher();
+	    return publisher;
+	}
+	
+	/**
+	 * Return a publisher of the changes made to this board, like
+	 * {@link #changes()}, whose subscribers have their changes delivered
+	 * by the given executor from a buffer of the given size.  An executor
+	 * that runs tasks at once (such as {@code Runnable::run}) delivers 
+	 * each requested change before the operation that made it returns.
+	 * 
+	 * @param executor where to run deliveries, must not be null
+	 * @param capacity most locations to buffer for each subscriber
+	 * @return         publisher of changes to this board
+	 * @throws IllegalArgumentException if the capacity is not positive
+	 */
+	public Flow.Publisher<TileChange> changes(Executor executor, int capacity) {
+	    if (executor == null) throw new NullPointerException("executor cannot be null");
+	    if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+	    ChangePublisher p = (ChangePublisher) changes();
+	    return s -> p.subscribe(s, executor, capacity);
+	}
+	
+	// binary snapshots
+	
+	private static final int SNAPSHOT_MAGIC = 0x48455853; // "HEXS"
+	private static final int BLOCK = 8; // tiles whose terrains share 3 bytes
+	
+	/**
+	 * Write a binary snapshot of this board.  The snapshot is the magic 
+	 * number, the number of tiles and the first row, followed by the tiles 
+	 * in row-major order in blocks of eight.  Each block starts with the 
+	 * eight terrains, three bits each, in three bytes.  Then for each tile 
+	 * comes the distance down from the previous tile's row, and then either 
+	 * the distance along from the previous tile (less one) if in the same 
+	 * row, or the column itself.  Numbers are written as varints (seven 
+	 * bits a byte, low bits first), zigzag encoded when they could be 
+	 * negative.  A typical board takes two or three bytes a tile.
+	 * 
+	 * @param out      channel to write to, must not be null
+	 * @throws IOException if the channel cannot be written
+	 */
+	public void writeTo(WritableByteChannel out) throws IOException {
+	    assert wellFormed() : "in writeTo";
+	    ByteOutput w = new ByteOutput(out);
+	    w.writeVarLong(SNAPSHOT_MAGIC);
+	    w.writeVarLong(size);
+	    Node n = firstNode(root);
+	    long prevB = n == null ? 0 : n.loc.b(), prevA = 0;
+	    w.writeVarLong(zigzag(prevB));
+	    Node[] block = new Node[BLOCK];
+	    for (boolean first = true; n != null; ) {
+	        int count = 0, bits = 0;
+	        for (; count < BLOCK && n != null; ++count, n = successor(n)) {
+	            block[count] = n;
+	            bits |= n.terrain.ordinal() << (3 * count);
+	        }
+	        w.writeByte(bits);
+	        w.writeByte(bits >>> 8);
+	        w.writeByte(bits >>> 16);
+	        for (int i=0; i < count; ++i) {
+	            HexCoordinate loc = block[i].loc;
+	            long down = loc.b() - prevB;
+	            w.writeVarLong(down);
+	            if (first || down > 0) w.writeVarLong(zigzag(loc.a()));
+	            else w.writeVarLong(loc.a() - prevA - 1);
+	            prevB = loc.b();
+	            prevA = loc.a();
+	            first = false;
+	        }
+	    }
+	    w.flush();
+	}
+	
+	/**
+	 * Replace the contents of this board with a snapshot written by 
+	 * {@link #writeTo(WritableByteChannel)}.  The tree is built in linear
+	 * time from the sorted tiles.  The channel may be read beyond the end
+	 * of the snapshot.  If the snapshot is bad, the board is unchanged.
+	 * Subscribers to {@link #changes()} are sent {@link TileChange#reset()}
+	 * rather than a change for each tile.
+	 * 
+	 * @param in       channel to read from, must not be null
+	 * @throws IOException if the channel cannot be read
+	 * @throws FormatException if the snapshot is malformed or ends early
+	 */
+	public void readFrom(ReadableByteChannel in) throws IOException {
+	    assert wellFormed() : "in readFrom";
+	    ByteInput r = new ByteInput(in);
+	    if (r.readVarLong() != SNAPSHOT_MAGIC) 
+	        throw new FormatException("Not a hex board snapshot");
+	    long count = r.readVarLong();
+	    if (count < 0 || count > Integer.MAX_VALUE - 8) 
+	        throw new FormatException("Bad tile count in snapshot: " + count);
+	    int n = (int) count;
+	    // grown as tiles are read, so a bad count cannot exhaust memory
+	    int capacity = Math.min(n, 1 << 12);
+	    HexCoordinate[] locs = new HexCoordinate[capacity];
+	    Terrain[] ters = new Terrain[capacity];
+	    Terrain[] all = Terrain.values();
+	    long b = unzigzag(r.readVarLong()), a = 0;
+	    for (int i=0; i < n; ++i) {
+	        if (i + BLOCK > capacity && capacity < n) {
+	            capacity = (int) Math.min(n, Math.max((long) capacity * 2, i + BLOCK));
+	            locs = Arrays.copyOf(locs, capacity);
+	            ters = Arrays.copyOf(ters, capacity);
+	        }
+	        if (i % BLOCK == 0) {
+	            int bits = r.readByte() | r.readByte() << 8 | r.readByte() << 16;
+	            for (int j=0; j < BLOCK && i + j < n; ++j) {
+	                int t = (bits >>> (3 * j)) & 7;
+	                if (t >= all.length) throw new FormatException("Bad terrain in snapshot: " + t);
+	                ters[i + j] = all[t];
+	            }
+	        }
+	        long down = r.readVarLong();
+	        if (down < 0 || down > 0xFFFFFFFFL) 
+	            throw new FormatException("Bad row in snapshot for tile " + i);
+	        b += down;
+	        if (i == 0 || down > 0) a = unzigzag(r.readVarLong());
+	        else {
+	            // unsigned, so that locations in a row always increase
+	            long step = r.readVarLong();
+	            if (step < 0 || step >= 0xFFFFFFFFL) 
+	                throw new FormatException("Bad column in snapshot for tile " + i);
+	            a += step + 1;
+	        }
+	        if (b != (int) b || a != (int) a) 
+	            throw new FormatException("Bad location in snapshot for tile " + i);
+	        locs[i] = new HexCoordinate((int) a, (int) b);
+	    }
+	    setSorted(locs, ters, n);
+	    if (terrainIndex != null) {
+	        for (TreeSet<HexCoordinate> s : terrainIndex) s.clear();
+	        for (int i=0; i < n; ++i) terrainIndex[ters[i].ordinal()].add(locs[i]);
+	    }
+	    assert wellFormed() && isBalanced() : "after readFrom";
+	    if (publisher != null) publisher.changedAll();
+	}
+	
+	private static long zigzag(long v) {
+	    return (v << 1) ^ (v >> 63);
+	}
+	
+	private static long unzigzag(long v) {
+	    return (v >>> 1) ^ -(v & 1);
+	}
+	
+	/**
+	 * Buffered writing of bytes and varints to a channel.
+	 */
+	private static class ByteOutput {
+	    private final WritableByteChannel channel;
+	    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	    
+	    ByteOutput(WritableByteChannel ch) { channel = ch; }
+	    
+	    void writeByte(int b) throws IOException {
+	        if (!buffer.hasRemaining()) flush();
+	        buffer.put((byte) b);
+	    }
+	    
+	    void writeVarLong(long v) throws IOException {
+	        while ((v & ~0x7FL) != 0) {
+	            writeByte((int) (v & 0x7F) | 0x80);
+	            v >>>= 7;
+	        }
+	        writeByte((int) v);
+	    }
+	    
+	    void flush() throws IOException {
+	        buffer.flip();
+	        while (buffer.hasRemaining()) channel.write(buffer);
+	        buffer.clear();
+	    }
+	}
+	
+	/**
+	 * Buffered reading of bytes and varints from a channel.
+	 */
+	private static class ByteInput {
+	    private final ReadableByteChannel channel;
+	    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	    
+	    ByteInput(ReadableByteChannel ch) { 
+	        channel = ch; 
+	        buffer.limit(0);
+	    }
+	    
+	    int readByte() throws IOException {
+	        while (!buffer.hasRemaining()) {
+	            buffer.clear();
+	            int read = channel.read(buffer);
+	            buffer.flip();
+	            if (read < 0) throw new FormatException("Snapshot ends early");
+	        }
+	        return buffer.get() & 0xFF;
+	    }
+	    
+	    long readVarLong() throws IOException {
+	        long v = 0;
+	        for (int shift = 0; shift < 64; shift += 7) {
+	            int b = readByte();
+	            v |= (long) (b & 0x7F) << shift;
+	            if ((b & 0x80) == 0) return v;
+	        }
+	        throw new FormatException("Varint too long in snapshot");
+	    }
+	}
+
 	// Do not change anything in this test class:
 	public static class TestInternals extends TestCase {
 		private HexBoard self;
@@ -0,0 +1,64 @@
+package edu.uwm.cs351;
+
+/**
+ * Packing of hex coordinates into single long keys.  The row (b) goes in
+ * the high half and the column (a), with its sign bit flipped, in the low
+ * half, so that comparing two keys as signed longs gives the same row-major
+ * order as comparing the coordinates row first and then column.
+ * The third coordinate is not stored since it is always a - b.
+ */
+final class HexKeys {
+
+	private HexKeys() { } // no instances
+
+	/**
+	 * Return the packed key for the coordinate (a,b).
+	 *
+	 * @param a first coordinate (column)
+	 * @param b second coordinate (row)
+	 * @return key that sorts in row-major order
+	 */
+	static long key(int a, int b) {
+		return ((long) b << 32) | ((a ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Return the packed key for a hex coordinate.
+	 *
+	 * @param h hex coordinate, must not be null
+	 * @return key that sorts in row-major order
+	 */
+	static long key(HexCoordinate h) {
+		return key(h.a(), h.b());
+	}
+
+	/**
+	 * Return the first coordinate (column) of a packed key.
+	 *
+	 * @param k packed key
+	 * @return the a coordinate
+	 */
+	static int a(long k) {
+		return (int) k ^ Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Return the second coordinate (row) of a packed key.
+	 *
+	 * @param k packed key
+	 * @return the b coordinate
+	 */
+	static int b(long k) {
+		return (int) (k >> 32);
+	}
+
+	/**
+	 * Return the hex coordinate of a packed key.
+	 *
+	 * @param k packed key
+	 * @return new hex coordinate for the key
+	 */
+	static HexCoordinate toCoordinate(long k) {
+		return new HexCoordinate(a(k), b(k));
+	}
+}
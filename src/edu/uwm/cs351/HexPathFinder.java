@@ -0,0 +1,428 @@
+package edu.uwm.cs351;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A* search for cheapest paths over the tiles of a {@link HexBoard}.
+ * Moving onto a tile costs the cost of its terrain.  Inaccessible tiles,
+ * tiles whose terrain has no cost and locations with no tile at all
+ * cannot be entered.  The heuristic is the hex distance to the goal times
+ * the cheapest cost, which never overestimates, so the paths found are
+ * always cheapest ones.
+ * <p>
+ * Searches run in a {@link Search}, which keeps the open and closed sets
+ * in primitive arrays: a hash table from packed locations (see
+ * {@link HexKeys}) to entries, and a binary heap of entries.  The arrays
+ * are kept from one search to the next, and emptied in O(1) time, so
+ * once they have grown to fit, a search allocates nothing but the path
+ * it is asked for.  A finder may be shared by threads, each with its own
+ * search, as long as the board does not change while they search.
+ */
+public class HexPathFinder {
+
+	private final HexBoard board;
+	private final int[] costs; // by terrain ordinal, 0 if it cannot be entered
+	private final int minCost;
+
+	/**
+	 * Create a path finder for which every tile but an inaccessible one
+	 * costs 1 to enter, so the cheapest paths are the shortest.
+	 * @param board board to search, must not be null
+	 */
+	public HexPathFinder(HexBoard board) {
+		this(board, uniformCosts());
+	}
+
+	private static Map<Terrain, Integer> uniformCosts() {
+		Map<Terrain, Integer> result = new EnumMap<>(Terrain.class);
+		for (Terrain t : Terrain.values()) result.put(t, 1);
+		return result;
+	}
+
+	/**
+	 * Create a path finder with the given costs for entering tiles of each
+	 * terrain.  Terrains not in the map cannot be entered, nor can
+	 * inaccessible tiles whatever their cost.
+	 * @param board board to search, must not be null
+	 * @param costs costs of terrains, must not be null, and all positive
+	 * @throws IllegalArgumentException if a cost is not positive
+	 */
+	public HexPathFinder(HexBoard board, Map<Terrain, Integer> costs) {
+		if (board == null) throw new NullPointerException("board cannot be null");
+		this.board = board;
+		this.costs = new int[Terrain.values().length];
+		int least = Integer.MAX_VALUE;
+		for (Map.Entry<Terrain, Integer> e : costs.entrySet()) {
+			int c = e.getValue();
+			if (c <= 0) throw new IllegalArgumentException("cost of " + e.getKey() + " must be positive: " + c);
+			if (e.getKey() == Terrain.INACCESSIBLE) continue;
+			this.costs[e.getKey().ordinal()] = c;
+			least = Math.min(least, c);
+		}
+		minCost = least == Integer.MAX_VALUE ? 1 : least;
+	}
+
+	/**
+	 * Return the cost of entering a tile of the given terrain.
+	 * @param t terrain, must not be null
+	 * @return cost, or 0 if such tiles cannot be entered
+	 */
+	public int costOf(Terrain t) {
+		return costs[t.ordinal()];
+	}
+
+	/**
+	 * Return a new search context.  Keep it for later searches: its
+	 * arrays are reused.
+	 * @return new search context for this path finder
+	 */
+	public Search newSearch() {
+		return new Search();
+	}
+
+	/**
+	 * Return a cheapest path from one location to another, using a new
+	 * search context.
+	 * @param from start, must not be null
+	 * @param to goal, must not be null
+	 * @return locations from start to goal, both included, or null if
+	 * the goal cannot be reached
+	 */
+	public List<HexCoordinate> findPath(HexCoordinate from, HexCoordinate to) {
+		Search s = newSearch();
+		return s.find(from, to) ? s.path() : null;
+	}
+
+	private static final int[] DA = {1, 1, 0, -1, -1, 0};
+	private static final int[] DB = {0, 1, 1, 0, -1, -1};
+
+	/**
+	 * A reusable context for searches with this path finder.  After a
+	 * successful search, the path may be read a location at a time with
+	 * {@link #a(int)} and {@link #b(int)}, or all at once with
+	 * {@link #path()}.  A search context must not be used by more than
+	 * one thread at once.
+	 */
+	public class Search {
+		// entries: locations reached in this search
+		private int[] entryA, entryB;
+		private int[] g; // cost of the cheapest way found to here
+		private int[] enter; // cost of entering this location
+		private int[] parent; // entry before this one on that way, or -1
+		private boolean[] closed; // done with, or cannot be entered
+		private int entries;
+
+		// open addressing hash table from packed location to entry; a slot
+		// is in use only if its stamp is that of the current search
+		private long[] slotKeys;
+		private int[] slotEntries, slotStamps;
+		private int stamp;
+
+		// the open set: a heap of entries, ordered by f and then h,
+		// packed together in the keys.  An entry may be in it more than
+		// once if a cheaper way to it was found; the later ones are skipped.
+		private long[] heapKeys;
+		private int[] heapEntries;
+		private int heapSize;
+
+		// the result of the last search
+		private int[] pathA = new int[16], pathB = new int[16];
+		private int pathLength;
+		private int cost = -1;
+		private int expanded;
+
+		private int goalA, goalB;
+
+		Search() {
+			growEntries(1024);
+			growTable(2048);
+			heapKeys = new long[1024];
+			heapEntries = new int[1024];
+		}
+
+		/**
+		 * Find a cheapest path from one location to another.  The start
+		 * need not be a tile that could be entered.
+		 * @param from start, must not be null
+		 * @param to goal, must not be null
+		 * @return whether there is a path
+		 */
+		public boolean find(HexCoordinate from, HexCoordinate to) {
+			return find(from, to, Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Find a cheapest path from one location to another, giving up
+		 * after looking at the neighbors of the given number of locations.
+		 * @param from start, must not be null
+		 * @param to goal, must not be null
+		 * @param limit most locations to expand, must not be negative
+		 * @return whether a path was found
+		 * @throws IllegalArgumentException if the limit is negative
+		 */
+		public boolean find(HexCoordinate from, HexCoordinate to, int limit) {
+			if (from == null || to == null) throw new NullPointerException("path cannot have null ends");
+			return find(from.a(), from.b(), to.a(), to.b(), limit);
+		}
+
+		/**
+		 * Find a cheapest path from (fromA,fromB) to (toA,toB), giving up
+		 * after looking at the neighbors of the given number of locations.
+		 * This does not need hex coordinates to be created.
+		 * @param fromA column of the start
+		 * @param fromB row of the start
+		 * @param toA column of the goal
+		 * @param toB row of the goal
+		 * @param limit most locations to expand, must not be negative
+		 * @return whether a path was found
+		 * @throws IllegalArgumentException if the limit is negative
+		 */
+		public boolean find(int fromA, int fromB, int toA, int toB, int limit) {
+			if (limit < 0) throw new IllegalArgumentException("limit cannot be negative: " + limit);
+			entries = 0;
+			heapSize = 0;
+			pathLength = 0;
+			cost = -1;
+			expanded = 0;
+			if (++stamp == 0) { // wrapped around: forget old stamps
+				Arrays.fill(slotStamps, 0);
+				stamp = 1;
+			}
+			goalA = toA;
+			goalB = toB;
+			if (fromA != toA || fromB != toB) {
+				Terrain t = board.terrainAt(toA, toB);
+				if (t == null || costs[t.ordinal()] == 0) return false;
+			}
+			int start = addEntry(fromA, fromB, 0, 0, -1);
+			push(start, 0, heuristic(fromA, fromB));
+			while (heapSize > 0) {
+				int e = pop();
+				if (closed[e]) continue;
+				int a = entryA[e], b = entryB[e];
+				if (a == toA && b == toB) {
+					setPath(e);
+					return true;
+				}
+				closed[e] = true;
+				if (expanded == limit) return false;
+				++expanded;
+				for (int d=0; d < 6; ++d) {
+					long na = (long) a + DA[d], nb = (long) b + DB[d];
+					if (na != (int) na || nb != (int) nb) continue;
+					relax(e, (int) na, (int) nb);
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Consider going to (a,b) from the given entry.
+		 */
+		private void relax(int from, int a, int b) {
+			int m = lookup(a, b);
+			if (m < 0) {
+				Terrain t = board.terrainAt(a, b);
+				int c = t == null ? 0 : costs[t.ordinal()];
+				m = addEntry(a, b, Integer.MAX_VALUE, c, from);
+				if (c == 0) {
+					closed[m] = true; // remember so as not to look it up again
+					return;
+				}
+			} else if (closed[m]) return;
+			long ng = (long) g[from] + enter[m];
+			if (ng >= g[m]) return;
+			g[m] = (int) Math.min(ng, Integer.MAX_VALUE - 1);
+			parent[m] = from;
+			push(m, g[m], heuristic(a, b));
+		}
+
+		private int heuristic(int a, int b) {
+			long da = Math.abs((long) goalA - a), db = Math.abs((long) goalB - b);
+			long dc = Math.abs(((long) goalA - a) - ((long) goalB - b));
+			long h = Math.max(da, Math.max(db, dc)) * minCost;
+			return (int) Math.min(h, Integer.MAX_VALUE / 2);
+		}
+
+		private void setPath(int e) {
+			cost = g[e];
+			int n = 0;
+			for (int p = e; p >= 0; p = parent[p]) ++n;
+			if (n > pathA.length) {
+				pathA = new int[Math.max(n, pathA.length * 2)];
+				pathB = new int[pathA.length];
+			}
+			pathLength = n;
+			for (int p = e; p >= 0; p = parent[p]) {
+				--n;
+				pathA[n] = entryA[p];
+				pathB[n] = entryB[p];
+			}
+		}
+
+		// entries
+
+		private int addEntry(int a, int b, int cost, int enterCost, int from) {
+			if (entries == entryA.length) growEntries(entries * 2);
+			int e = entries++;
+			entryA[e] = a;
+			entryB[e] = b;
+			g[e] = cost;
+			enter[e] = enterCost;
+			parent[e] = from;
+			closed[e] = false;
+			if (entries * 2 > slotKeys.length) growTable(slotKeys.length * 2);
+			else insert(HexKeys.key(a, b), e);
+			return e;
+		}
+
+		private void growEntries(int n) {
+			entryA = entryA == null ? new int[n] : Arrays.copyOf(entryA, n);
+			entryB = entryB == null ? new int[n] : Arrays.copyOf(entryB, n);
+			g = g == null ? new int[n] : Arrays.copyOf(g, n);
+			enter = enter == null ? new int[n] : Arrays.copyOf(enter, n);
+			parent = parent == null ? new int[n] : Arrays.copyOf(parent, n);
+			closed = closed == null ? new boolean[n] : Arrays.copyOf(closed, n);
+		}
+
+		// the hash table
+
+		private int slot(long key) {
+			return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (slotKeys.length - 1);
+		}
+
+		private int lookup(int a, int b) {
+			long key = HexKeys.key(a, b);
+			for (int i = slot(key); slotStamps[i] == stamp; i = (i + 1) & (slotKeys.length - 1)) {
+				if (slotKeys[i] == key) return slotEntries[i];
+			}
+			return -1;
+		}
+
+		private void insert(long key, int e) {
+			int i = slot(key);
+			while (slotStamps[i] == stamp) i = (i + 1) & (slotKeys.length - 1);
+			slotKeys[i] = key;
+			slotEntries[i] = e;
+			slotStamps[i] = stamp;
+		}
+
+		/**
+		 * Replace the table with a bigger one holding all the entries.
+		 */
+		private void growTable(int n) {
+			slotKeys = new long[n];
+			slotEntries = new int[n];
+			slotStamps = new int[n];
+			if (stamp == 0) stamp = 1;
+			for (int e=0; e < entries; ++e) insert(HexKeys.key(entryA[e], entryB[e]), e);
+		}
+
+		// the heap
+
+		private void push(int e, int cost, int h) {
+			if (heapSize == heapKeys.length) {
+				heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+				heapEntries = Arrays.copyOf(heapEntries, heapSize * 2);
+			}
+			long key = Math.min((long) cost + h, Integer.MAX_VALUE) << 32 | h;
+			int i = heapSize++;
+			while (i > 0) {
+				int p = (i - 1) >>> 1;
+				if (heapKeys[p] <= key) break;
+				heapKeys[i] = heapKeys[p];
+				heapEntries[i] = heapEntries[p];
+				i = p;
+			}
+			heapKeys[i] = key;
+			heapEntries[i] = e;
+		}
+
+		private int pop() {
+			int result = heapEntries[0];
+			long key = heapKeys[--heapSize];
+			int e = heapEntries[heapSize];
+			int i = 0;
+			for (;;) {
+				int c = 2 * i + 1;
+				if (c >= heapSize) break;
+				if (c + 1 < heapSize && heapKeys[c + 1] < heapKeys[c]) ++c;
+				if (key <= heapKeys[c]) break;
+				heapKeys[i] = heapKeys[c];
+				heapEntries[i] = heapEntries[c];
+				i = c;
+			}
+			heapKeys[i] = key;
+			heapEntries[i] = e;
+			return result;
+		}
+
+		// the result
+
+		/**
+		 * Return the cost of the path found by the last search.
+		 * @return cost of entering each location on the path after the
+		 * start, or -1 if no path was found
+		 */
+		public int cost() {
+			return cost;
+		}
+
+		/**
+		 * Return the number of locations on the path found by the last
+		 * search, including the start and the goal.
+		 * @return length of the path, or 0 if no path was found
+		 */
+		public int length() {
+			return pathLength;
+		}
+
+		/**
+		 * Return the number of locations whose neighbors the last search
+		 * looked at.
+		 * @return number of locations expanded
+		 */
+		public int expanded() {
+			return expanded;
+		}
+
+		private void checkIndex(int i) {
+			if (i < 0 || i >= pathLength) throw new IndexOutOfBoundsException("index " + i + " for path of length " + pathLength);
+		}
+
+		/**
+		 * Return the column of a location on the path.
+		 * @param i index on the path, from 0 (the start) to length()-1
+		 * @return column of the location
+		 */
+		public int a(int i) {
+			checkIndex(i);
+			return pathA[i];
+		}
+
+		/**
+		 * Return the row of a location on the path.
+		 * @param i index on the path, from 0 (the start) to length()-1
+		 * @return row of the location
+		 */
+		public int b(int i) {
+			checkIndex(i);
+			return pathB[i];
+		}
+
+		/**
+		 * Return the path found by the last search.
+		 * @return new list of the locations from start to goal, empty if
+		 * no path was found
+		 */
+		public List<HexCoordinate> path() {
+			List<HexCoordinate> result = new ArrayList<>(pathLength);
+			for (int i=0; i < pathLength; ++i) result.add(new HexCoordinate(pathA[i], pathB[i]));
+			return result;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package edu.uwm.cs351;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * A fast reader for files of hex tiles in the form written by
+ * {@link HexTile#toString()}: <code>TERRAIN&lt;a,b,c&gt;</code>, separated
+ * by white space (usually one a line).  Unlike {@link HexTile#fromString(String)},
+ * the bytes are parsed as they come in from the channel, with the digits
+ * converted by hand and terrain names matched byte by byte, so no strings
+ * are created unless there is an error.  Errors are reported as
+ * {@link FormatException}s whose messages start with the line number.
+ */
+public class HexTileLoader {
+
+	private static final Terrain[] TERRAINS = Terrain.values();
+	private static final byte[][] NAMES = new byte[TERRAINS.length][];
+	private static final int MAX_NAME;
+	static {
+		int max = 0;
+		for (Terrain t : TERRAINS) {
+			NAMES[t.ordinal()] = t.name().getBytes(StandardCharsets.US_ASCII);
+			max = Math.max(max, t.name().length());
+		}
+		MAX_NAME = max;
+	}
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	private final byte[] bytes = buffer.array();
+	private final byte[] name = new byte[MAX_NAME];
+	private int pos, limit;
+	private int line = 1;
+
+	private HexTileLoader(ReadableByteChannel in) {
+		channel = in;
+	}
+
+	/**
+	 * Read all the tiles from the channel, handing each to the visitor.
+	 * @param in channel to read, must not be null
+	 * @param v visitor to give tiles to, must not be null
+	 * @return number of tiles read
+	 * @throws IOException if the channel cannot be read
+	 * @throws FormatException if the input is not a sequence of hex tiles
+	 */
+	public static long parse(ReadableByteChannel in, TileVisitor v) throws IOException {
+		return new HexTileLoader(in).run(v);
+	}
+
+	/**
+	 * Read all the tiles from the channel and add them to a board (or other
+	 * collection of tiles).  Tiles read before an error will have been added.
+	 * @param in channel to read, must not be null
+	 * @param board where to add the tiles, must not be null
+	 * @return number of tiles read
+	 * @throws IOException if the channel cannot be read
+	 * @throws FormatException if the input is not a sequence of hex tiles
+	 */
+	public static long load(ReadableByteChannel in, Collection<HexTile> board) throws IOException {
+		return parse(in, (a, b, t) -> board.add(new HexTile(t, new HexCoordinate(a, b))));
+	}
+
+	/**
+	 * Return the next byte without consuming it, or -1 at the end of input.
+	 */
+	private int peek() throws IOException {
+		while (pos == limit) {
+			buffer.clear();
+			int read = channel.read(buffer);
+			if (read < 0) return -1;
+			pos = 0;
+			limit = read;
+		}
+		return bytes[pos];
+	}
+
+	private int read() throws IOException {
+		int c = peek();
+		if (c >= 0) ++pos;
+		return c;
+	}
+
+	private FormatException error(String message) {
+		return new FormatException("line " + line + ": " + message);
+	}
+
+	private void expect(char c) throws IOException {
+		if (read() != c) throw error("Not in format TERRAIN<a,b,c>: expected '" + c + "'");
+	}
+
+	private long run(TileVisitor v) throws IOException {
+		long count = 0;
+		for (;;) {
+			int c = peek();
+			while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+				if (c == '\n') ++line;
+				++pos;
+				c = peek();
+			}
+			if (c < 0) return count;
+			Terrain t = readTerrain();
+			expect('<');
+			int a = readInt();
+			expect(',');
+			int b = readInt();
+			expect(',');
+			int cc = readInt();
+			expect('>');
+			if (a - b != cc) // wraps around, as in HexCoordinate
+				throw error("c coordinate must be the difference of a and b: " + cc + " != " + a + " - " + b);
+			v.visit(a, b, t);
+			++count;
+		}
+	}
+
+	private Terrain readTerrain() throws IOException {
+		int n = 0;
+		for (int c = peek(); c != '<'; c = peek()) {
+			if (c < 0 || c == '\n' || n == MAX_NAME) throw error("Not in format TERRAIN<a,b,c>");
+			name[n++] = (byte) c;
+			++pos;
+		}
+		search:
+		for (int i=0; i < NAMES.length; ++i) {
+			byte[] candidate = NAMES[i];
+			if (candidate.length != n) continue;
+			for (int j=0; j < n; ++j) {
+				if (candidate[j] != name[j]) continue search;
+			}
+			return TERRAINS[i];
+		}
+		throw error("No terrain named '" + new String(name, 0, n, StandardCharsets.US_ASCII) + "'");
+	}
+
+	private int readInt() throws IOException {
+		boolean negative = peek() == '-';
+		if (negative) ++pos;
+		long value = 0;
+		int digits = 0;
+		for (int c = peek(); c >= '0' && c <= '9'; c = peek()) {
+			value = value * 10 + (c - '0');
+			if (value > 1L + Integer.MAX_VALUE) throw error("Number too large");
+			++digits;
+			++pos;
+		}
+		if (digits == 0) throw error("Not in format TERRAIN<a,b,c>: expected a number");
+		if (negative) value = -value;
+		if (value > Integer.MAX_VALUE) throw error("Number too large");
+		return (int) value;
+	}
+}
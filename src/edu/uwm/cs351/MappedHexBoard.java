@@ -0,0 +1,191 @@
+package edu.uwm.cs351;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only hex board kept in a file that is memory-mapped rather than
+ * read in.  The file is a header followed by the tiles in row-major order:
+ * <pre>
+ *   magic "HEXB" (int), format version (int), number of tiles (long)
+ *   then for each tile: packed key (long, see HexKeys), terrain ordinal (byte)
+ * </pre>
+ * all big-endian.  Opening a board only maps the file, so it takes about
+ * the same time however big the board is; the operating system pages in
+ * the parts that are used and keeps the busy ones in its cache.
+ * {@link #terrainAt(HexCoordinate)} is a binary search straight over the
+ * mapped records, and iteration reads through them in order.
+ * <p>
+ * The records are trusted to be in order, as {@link #save(Collection, Path)}
+ * writes them: checking would mean reading the whole file when it is
+ * opened.  A file whose records are out of order gives wrong answers
+ * from {@link #terrainAt(HexCoordinate)}, though never an exception.
+ * <p>
+ * Since a single mapping cannot exceed 2GB, big files are mapped as several
+ * regions.  A mapping stays valid until the board is garbage collected; it
+ * does not need the file to be kept open.
+ */
+public class MappedHexBoard extends AbstractCollection<HexTile> {
+
+	private static final int MAGIC = 0x48455842; // "HEXB"
+	private static final int FORMAT = 1;
+	private static final int HEADER = 16;
+	private static final int RECORD = 9;
+	private static final int REGION_SHIFT = 27;
+	private static final long REGION = 1L << REGION_SHIFT; // records in a region
+	private static final Terrain[] TERRAINS = Terrain.values();
+
+	private final MappedByteBuffer[] regions;
+	private final long count;
+
+	private MappedHexBoard(MappedByteBuffer[] regions, long count) {
+		this.regions = regions;
+		this.count = count;
+	}
+
+	/**
+	 * Write the tiles to a file in the mapped board format, replacing
+	 * anything that was there.  If the tiles are not already in row-major
+	 * order (as they are from {@link HexBoard}), they are sorted first;
+	 * a later tile at the same location as an earlier one replaces it.
+	 * @param tiles tiles to write, must not be null
+	 * @param file where to write them, must not be null
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void save(Collection<HexTile> tiles, Path file) throws IOException {
+		long last = 0;
+		boolean first = true, sorted = true;
+		for (HexTile t : tiles) {
+			long k = HexKeys.key(t.getLocation());
+			if (!first && k <= last) {
+				sorted = false;
+				break;
+			}
+			last = k;
+			first = false;
+		}
+		if (!sorted) {
+			PackedHexBoard copy = new PackedHexBoard(tiles.size());
+			copy.addAll(tiles);
+			tiles = copy;
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeLong(tiles.size());
+			for (HexTile t : tiles) {
+				out.writeLong(HexKeys.key(t.getLocation()));
+				out.writeByte(t.getTerrain().ordinal());
+			}
+		}
+	}
+
+	/**
+	 * Map a board file written by {@link #save(Collection, Path)}.
+	 * Only the header and length are checked; a bad terrain is reported
+	 * (as a {@link FormatException}) when its tile is read.
+	 * @param file file to map, must not be null
+	 * @return read-only board backed by the file
+	 * @throws IOException if the file cannot be read
+	 * @throws FormatException if the file is not a board file
+	 */
+	public static MappedHexBoard open(Path file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			long length = ch.size();
+			if (length < HEADER) throw new FormatException("Not a hex board file: " + file);
+			MappedByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+			if (header.getInt(0) != MAGIC) throw new FormatException("Not a hex board file: " + file);
+			if (header.getInt(4) != FORMAT) throw new FormatException("Unknown hex board format " + header.getInt(4) + ": " + file);
+			long count = header.getLong(8);
+			if (count < 0 || count > Integer.MAX_VALUE || length != HEADER + count * RECORD)
+				throw new FormatException("Wrong length for " + count + " tiles: " + file);
+			int n = (int) ((count + REGION - 1) >> REGION_SHIFT);
+			MappedByteBuffer[] regions = new MappedByteBuffer[n];
+			for (int i=0; i < n; ++i) {
+				long start = i * REGION;
+				long records = Math.min(REGION, count - start);
+				regions[i] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER + start * RECORD, records * RECORD);
+			}
+			return new MappedHexBoard(regions, count);
+		}
+	}
+
+	private long key(long i) {
+		return regions[(int) (i >> REGION_SHIFT)].getLong((int) (i & (REGION - 1)) * RECORD);
+	}
+
+	private Terrain terrain(long i) {
+		byte t = regions[(int) (i >> REGION_SHIFT)].get((int) (i & (REGION - 1)) * RECORD + 8);
+		if (t < 0 || t >= TERRAINS.length) throw new FormatException("Bad terrain " + t + " for tile " + i);
+		return TERRAINS[t];
+	}
+
+	/**
+	 * Return the index of the record with this key, or -1 if none.
+	 * @param k packed key to look for
+	 * @return record index or -1
+	 */
+	private long find(long k) {
+		long lo = 0, hi = count - 1;
+		while (lo <= hi) {
+			long mid = (lo + hi) >>> 1;
+			long mk = key(mid);
+			if (mk < k) lo = mid + 1;
+			else if (mk > k) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null if nothing at this
+	 * coordinate.
+	 * @param c hex coordinate to look for, must not be null
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate c) {
+		long i = find(HexKeys.key(c));
+		return i < 0 ? null : terrain(i);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		return terrainAt(tile.getLocation()) == tile.getTerrain();
+	}
+
+	@Override // required by Java
+	public int size() {
+		return (int) count;
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		return new Iterator<HexTile>() {
+			private long next = 0;
+
+			@Override // required by Java
+			public boolean hasNext() {
+				return next < count;
+			}
+
+			@Override // required by Java
+			public HexTile next() {
+				if (!hasNext()) throw new NoSuchElementException("Iterator exhausted");
+				long i = next++;
+				return new HexTile(terrain(i), HexKeys.toCoordinate(key(i)));
+			}
+		};
+	}
+}
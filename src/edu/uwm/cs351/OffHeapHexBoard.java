@@ -0,0 +1,98 @@
+package edu.uwm.cs351;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A hex board whose tiles are stored outside the Java heap, for worlds
+ * too big for a reasonable heap.  It is the same red-black tree of slots
+ * as {@link PackedHexBoard}, but each slot is a {@value #RECORD}-byte
+ * record in a direct byte buffer:
+ * <pre>
+ *   0  packed key (long)     16  parent (int)
+ *   8  left (int)            20  terrain ordinal (byte)
+ *  12  right (int)           21  color (byte)
+ * </pre>
+ * The buffers are segments of {@value #SEGMENT} records each (24 MiB),
+ * added as the board grows, so the garbage collector only ever sees a
+ * handful of buffer objects however many tiles there are.
+ * <p>
+ * {@link #clear()} keeps the segments for reuse; {@link #release()} gives
+ * them up.  Java has no way to free a direct buffer at once: its memory is
+ * returned when the buffer object itself is collected, which
+ * {@link #release()} allows.
+ */
+public class OffHeapHexBoard extends SlotHexBoard {
+
+	/** Number of bytes in each slot record. */
+	public static final int RECORD = 24;
+	private static final int SEGMENT_SHIFT = 20;
+	/** Number of slot records in each segment. */
+	public static final int SEGMENT = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT - 1;
+
+	private static final int KEY = 0, LEFT = 8, RIGHT = 12, PARENT = 16, TERRAIN = 20, COLOR = 21;
+
+	private ByteBuffer[] segments = new ByteBuffer[0];
+
+	/**
+	 * Create an empty off-heap hex board.  No memory is allocated
+	 * until the first tile is added.
+	 */
+	public OffHeapHexBoard() { }
+
+	private ByteBuffer segment(int n) {
+		return segments[n >>> SEGMENT_SHIFT];
+	}
+
+	private static int offset(int n) {
+		return (n & SEGMENT_MASK) * RECORD;
+	}
+
+	@Override long key(int n) { return segment(n).getLong(offset(n) + KEY); }
+	@Override void setKey(int n, long k) { segment(n).putLong(offset(n) + KEY, k); }
+	@Override byte terrain(int n) { return segment(n).get(offset(n) + TERRAIN); }
+	@Override void setTerrain(int n, byte t) { segment(n).put(offset(n) + TERRAIN, t); }
+	@Override boolean red(int n) { return segment(n).get(offset(n) + COLOR) != 0; }
+	@Override void setRed(int n, boolean r) { segment(n).put(offset(n) + COLOR, (byte) (r ? 1 : 0)); }
+	@Override int left(int n) { return segment(n).getInt(offset(n) + LEFT); }
+	@Override void setLeft(int n, int l) { segment(n).putInt(offset(n) + LEFT, l); }
+	@Override int right(int n) { return segment(n).getInt(offset(n) + RIGHT); }
+	@Override void setRight(int n, int r) { segment(n).putInt(offset(n) + RIGHT, r); }
+	@Override int parent(int n) { return segment(n).getInt(offset(n) + PARENT); }
+	@Override void setParent(int n, int p) { segment(n).putInt(offset(n) + PARENT, p); }
+
+	@Override
+	int capacity() {
+		return (int) Math.min(Integer.MAX_VALUE, (long) segments.length << SEGMENT_SHIFT);
+	}
+
+	@Override
+	void ensureCapacity(int minCapacity) {
+		int count = segments.length;
+		int needed = (int) (((long) minCapacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+		if (needed <= count) return;
+		segments = Arrays.copyOf(segments, needed);
+		for (int i=count; i < needed; ++i) {
+			segments[i] = ByteBuffer.allocateDirect(SEGMENT * RECORD).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	/**
+	 * Return the number of bytes of off-heap memory held by this board.
+	 * @return bytes allocated in direct buffers
+	 */
+	public long offHeapBytes() {
+		return (long) segments.length * SEGMENT * RECORD;
+	}
+
+	/**
+	 * Remove all the tiles and give up the off-heap memory.  The board
+	 * may still be used afterwards; memory is allocated again as needed.
+	 */
+	public void release() {
+		clear();
+		segments = new ByteBuffer[0];
+	}
+}
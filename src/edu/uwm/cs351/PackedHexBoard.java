@@ -0,0 +1,77 @@
+package edu.uwm.cs351;
+
+import java.util.Arrays;
+
+/**
+ * A compact storage mode for a hex board.  It is the same red-black tree
+ * as {@link HexBoard}, but the nodes are slots in parallel primitive arrays
+ * instead of objects: a packed long key for the location (see {@link HexKeys}),
+ * a byte for the terrain ordinal, a boolean for the color (also a byte in
+ * the array) and int indices for the links.  That is 22 bytes a slot,
+ * where a HexBoard node and its hex coordinate take several times as much
+ * once object headers and references are counted.  Hex tiles and
+ * coordinates are only created when they are handed out.
+ */
+public class PackedHexBoard extends SlotHexBoard {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] keys;
+	private byte[] terrains;
+	private boolean[] red;
+	private int[] left, right, parent;
+
+	/**
+	 * Create an empty packed hex board.
+	 */
+	public PackedHexBoard() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Create an empty packed hex board with room for the given number of
+	 * tiles before the arrays need to grow.
+	 * @param capacity initial number of slots, must not be negative
+	 * @exception IllegalArgumentException if the capacity is negative
+	 */
+	public PackedHexBoard(int capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("capacity cannot be negative: " + capacity);
+		keys = new long[capacity];
+		terrains = new byte[capacity];
+		red = new boolean[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		parent = new int[capacity];
+	}
+
+	@Override long key(int n) { return keys[n]; }
+	@Override void setKey(int n, long k) { keys[n] = k; }
+	@Override byte terrain(int n) { return terrains[n]; }
+	@Override void setTerrain(int n, byte t) { terrains[n] = t; }
+	@Override boolean red(int n) { return red[n]; }
+	@Override void setRed(int n, boolean r) { red[n] = r; }
+	@Override int left(int n) { return left[n]; }
+	@Override void setLeft(int n, int l) { left[n] = l; }
+	@Override int right(int n) { return right[n]; }
+	@Override void setRight(int n, int r) { right[n] = r; }
+	@Override int parent(int n) { return parent[n]; }
+	@Override void setParent(int n, int p) { parent[n] = p; }
+
+	@Override
+	int capacity() {
+		return keys.length;
+	}
+
+	@Override
+	void ensureCapacity(int minCapacity) {
+		if (minCapacity <= keys.length) return;
+		int capacity = (int) Math.min(Integer.MAX_VALUE - 8,
+				Math.max(Math.max(INITIAL_CAPACITY, 2L * keys.length), minCapacity));
+		keys = Arrays.copyOf(keys, capacity);
+		terrains = Arrays.copyOf(terrains, capacity);
+		red = Arrays.copyOf(red, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+	}
+}
@@ -0,0 +1,338 @@
+package edu.uwm.cs351;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A hex board whose tree nodes are never changed once made.  Adding or
+ * removing a tile copies only the O(log n) nodes on the path to it and
+ * shares the rest, so {@link #snapshot()} can hand out the current tree
+ * in O(1) time: the snapshot is a read-only board that keeps seeing the
+ * tiles as they were, however the board changes afterwards.
+ * <p>
+ * The tree is an AVL tree in the row-major order of {@link HexBoard};
+ * unlike HexBoard's red-black tree it has no parent links, since a node
+ * shared by several versions has no single parent.  Iterators walk the
+ * tree as it was when they were created, so they never become stale and
+ * never need locks.  Snapshots may be given to other threads, as long as
+ * they are handed over in the usual safe ways (a concurrent queue, an
+ * executor, a volatile field).
+ */
+public class PersistentHexBoard extends AbstractCollection<HexTile> {
+
+	private static boolean doReport = true;
+
+	private static final class Node {
+		final HexCoordinate loc;
+		final Terrain terrain;
+		final Node left, right;
+		final int height;
+		Node(HexCoordinate loc, Terrain terrain, Node left, Node right) {
+			this.loc = loc;
+			this.terrain = terrain;
+			this.left = left;
+			this.right = right;
+			height = Math.max(height(left), height(right)) + 1;
+		}
+	}
+
+	private Node root;
+	private int size;
+	private final boolean readOnly;
+
+	/**
+	 * Create an empty persistent hex board.
+	 */
+	public PersistentHexBoard() {
+		this(null, 0, false);
+	}
+
+	/**
+	 * Create a board with the same tiles as another persistent board
+	 * (or a snapshot of one) that can be changed independently of it.
+	 * This takes O(1) time, since the trees are shared.
+	 * @param other board to start from, must not be null
+	 */
+	public PersistentHexBoard(PersistentHexBoard other) {
+		this(other.root, other.size, false);
+	}
+
+	private PersistentHexBoard(Node root, int size, boolean readOnly) {
+		this.root = root;
+		this.size = size;
+		this.readOnly = readOnly;
+		assert wellFormed() : "in constructor";
+	}
+
+	private static boolean report(String s) {
+		if (doReport) System.err.println("Invariant error: " + s);
+		return false;
+	}
+
+	private static int height(Node n) {
+		return n == null ? 0 : n.height;
+	}
+
+	private static int compare(HexCoordinate h1, HexCoordinate h2) {
+		int c = Integer.compare(h1.b(), h2.b());
+		if (c == 0) c = Integer.compare(h1.a(), h2.a());
+		return c;
+	}
+
+	/**
+	 * Return the number of nodes in the subtree, or -1 if it is out of
+	 * order, has a wrong height, or is not AVL balanced.
+	 */
+	private static int checkTree(Node r, HexCoordinate lo, HexCoordinate hi) {
+		if (r == null) return 0;
+		if (r.loc == null || r.terrain == null) return -1;
+		if (lo != null && compare(r.loc, lo) <= 0) return -1;
+		if (hi != null && compare(r.loc, hi) >= 0) return -1;
+		if (r.height != Math.max(height(r.left), height(r.right)) + 1) return -1;
+		if (Math.abs(height(r.left) - height(r.right)) > 1) return -1;
+		int lc = checkTree(r.left, lo, r.loc);
+		int rc = checkTree(r.right, r.loc, hi);
+		if (lc < 0 || rc < 0) return -1;
+		return lc + rc + 1;
+	}
+
+	private boolean wellFormed() {
+		int count = checkTree(root, null, null);
+		if (count < 0) return report("Tree is out of order or unbalanced.");
+		if (count != size) return report(String.format("Size disparity. Field: %d\tCount: %d", size, count));
+		return true;
+	}
+
+	/**
+	 * Return a read-only board with the tiles this board has now.  It
+	 * takes O(1) time and space: the snapshot shares this board's tree,
+	 * which later changes copy rather than modify.
+	 * @return board that will always have the current tiles
+	 */
+	public PersistentHexBoard snapshot() {
+		assert wellFormed() : "in snapshot";
+		if (readOnly) return this;
+		return new PersistentHexBoard(root, size, true);
+	}
+
+	/**
+	 * Return whether this board is a snapshot that cannot be changed.
+	 * @return whether changes throw UnsupportedOperationException
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	private void checkWritable() {
+		if (readOnly) throw new UnsupportedOperationException("snapshots cannot be changed");
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null if nothing at this
+	 * coordinate.
+	 * @param c hex coordinate to look for, must not be null
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate c) {
+		assert wellFormed() : "in terrainAt";
+		Node n = root;
+		while (n != null) {
+			int cmp = compare(c, n.loc);
+			if (cmp == 0) return n.terrain;
+			n = cmp < 0 ? n.left : n.right;
+		}
+		return null;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		return terrainAt(tile.getLocation()) == tile.getTerrain();
+	}
+
+	@Override // required by Java
+	public int size() {
+		assert wellFormed() : "in size";
+		return size;
+	}
+
+	/**
+	 * Make a node from the given parts, rotating if the subtrees'
+	 * heights differ by two.
+	 */
+	private static Node balance(HexCoordinate loc, Terrain t, Node l, Node r) {
+		int hl = height(l), hr = height(r);
+		if (hl > hr + 1) {
+			if (height(l.left) >= height(l.right)) {
+				return new Node(l.loc, l.terrain, l.left, new Node(loc, t, l.right, r));
+			}
+			Node lr = l.right;
+			return new Node(lr.loc, lr.terrain, new Node(l.loc, l.terrain, l.left, lr.left), new Node(loc, t, lr.right, r));
+		}
+		if (hr > hl + 1) {
+			if (height(r.right) >= height(r.left)) {
+				return new Node(r.loc, r.terrain, new Node(loc, t, l, r.left), r.right);
+			}
+			Node rl = r.left;
+			return new Node(rl.loc, rl.terrain, new Node(loc, t, l, rl.left), new Node(r.loc, r.terrain, rl.right, r.right));
+		}
+		return new Node(loc, t, l, r);
+	}
+
+	/**
+	 * Return the subtree with the tile added, or the same subtree if
+	 * the tile is already there.  If a new node was needed (rather than
+	 * a new terrain), added[0] is set.
+	 */
+	private static Node insert(Node n, HexCoordinate loc, Terrain t, boolean[] added) {
+		if (n == null) {
+			added[0] = true;
+			return new Node(loc, t, null, null);
+		}
+		int c = compare(loc, n.loc);
+		if (c == 0) {
+			if (n.terrain == t) return n;
+			return new Node(n.loc, t, n.left, n.right);
+		}
+		if (c < 0) {
+			Node l = insert(n.left, loc, t, added);
+			return l == n.left ? n : balance(n.loc, n.terrain, l, n.right);
+		}
+		Node r = insert(n.right, loc, t, added);
+		return r == n.right ? n : balance(n.loc, n.terrain, n.left, r);
+	}
+
+	/**
+	 * Add the tile, or change the terrain if there is already a tile at
+	 * its location.  Snapshots taken before are not affected.
+	 * @param t tile to add, must not be null
+	 * @return false if the terrain at that location is unchanged
+	 * @throws NullPointerException if the tile is null
+	 * @throws UnsupportedOperationException if this is a snapshot
+	 */
+	@Override
+	public boolean add(HexTile t) {
+		assert wellFormed() : "in add";
+		if (t == null) throw new NullPointerException("No adding null tiles");
+		checkWritable();
+		boolean[] added = new boolean[1];
+		Node r = insert(root, t.getLocation(), t.getTerrain(), added);
+		if (r == root) return false;
+		root = r;
+		if (added[0]) ++size;
+		assert wellFormed() : "after add";
+		return true;
+	}
+
+	private static Node first(Node n) {
+		while (n.left != null) n = n.left;
+		return n;
+	}
+
+	private static Node removeFirst(Node n) {
+		if (n.left == null) return n.right;
+		return balance(n.loc, n.terrain, removeFirst(n.left), n.right);
+	}
+
+	/**
+	 * Return the subtree with the tile removed, or the same subtree if
+	 * the tile is not there.
+	 */
+	private static Node delete(Node n, HexCoordinate loc, Terrain t) {
+		if (n == null) return null;
+		int c = compare(loc, n.loc);
+		if (c == 0) {
+			if (n.terrain != t) return n;
+			if (n.left == null) return n.right;
+			if (n.right == null) return n.left;
+			Node s = first(n.right);
+			return balance(s.loc, s.terrain, n.left, removeFirst(n.right));
+		}
+		if (c < 0) {
+			Node l = delete(n.left, loc, t);
+			return l == n.left ? n : balance(n.loc, n.terrain, l, n.right);
+		}
+		Node r = delete(n.right, loc, t);
+		return r == n.right ? n : balance(n.loc, n.terrain, n.left, r);
+	}
+
+	/**
+	 * Remove the tile if it is in the board (same location and terrain).
+	 * Snapshots taken before are not affected.
+	 * @param o object to remove (null OK but pointless)
+	 * @return whether the tile was removed
+	 * @throws UnsupportedOperationException if this is a snapshot
+	 */
+	@Override
+	public boolean remove(Object o) {
+		assert wellFormed() : "in remove";
+		checkWritable();
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		Node r = delete(root, tile.getLocation(), tile.getTerrain());
+		if (r == root) return false;
+		root = r;
+		--size;
+		assert wellFormed() : "after remove";
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		checkWritable();
+		root = null;
+		size = 0;
+	}
+
+	/**
+	 * Return an iterator over the tiles in row-major order, as they are
+	 * now.  Later changes to the board do not affect it.  Removing through
+	 * the iterator removes the tile from the board (unless the board has
+	 * since changed the tile's terrain).
+	 * @return iterator over the current tiles
+	 */
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		assert wellFormed() : "in iterator";
+		return new MyIterator(root);
+	}
+
+	private class MyIterator implements Iterator<HexTile> {
+		private final Node[] stack; // nodes whose left subtree is done
+		private int depth;
+		private HexTile current; // last returned, if it can be removed
+
+		MyIterator(Node r) {
+			stack = new Node[height(r)];
+			pushLeft(r);
+		}
+
+		private void pushLeft(Node n) {
+			for (; n != null; n = n.left) stack[depth++] = n;
+		}
+
+		@Override // required by Java
+		public boolean hasNext() {
+			return depth > 0;
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			if (!hasNext()) throw new NoSuchElementException("Iterator exhausted");
+			Node n = stack[--depth];
+			pushLeft(n.right);
+			current = new HexTile(n.terrain, n.loc);
+			return current;
+		}
+
+		@Override // implementation
+		public void remove() {
+			checkWritable();
+			if (current == null) throw new IllegalStateException("Nothing to remove");
+			PersistentHexBoard.this.remove(current);
+			current = null;
+		}
+	}
+}
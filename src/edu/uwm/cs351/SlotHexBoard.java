@@ -0,0 +1,446 @@
+package edu.uwm.cs351;
+
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A red-black tree of hex tiles whose nodes are numbered slots rather than
+ * objects.  Each slot has a packed key for the location (see {@link HexKeys}),
+ * a terrain ordinal, a color and the slot numbers of its left and right
+ * children and its parent.  Subclasses decide where the slots are stored.
+ * Removed slots are kept on a free list (linked through the left child) to
+ * be reused.
+ */
+abstract class SlotHexBoard extends AbstractCollection<HexTile> {
+
+	private static boolean doReport = true;
+
+	static final int NIL = -1;
+	static final Terrain[] TERRAINS = Terrain.values();
+
+	private int root = NIL;
+	private int size;
+	private int used; // slots ever handed out
+	private int free = NIL; // head of the free list
+	private int version;
+
+	/// storage of slots
+
+	abstract long key(int n);
+	abstract void setKey(int n, long k);
+	abstract byte terrain(int n);
+	abstract void setTerrain(int n, byte t);
+	abstract boolean red(int n);
+	abstract void setRed(int n, boolean r);
+	abstract int left(int n);
+	abstract void setLeft(int n, int l);
+	abstract int right(int n);
+	abstract void setRight(int n, int r);
+	abstract int parent(int n);
+	abstract void setParent(int n, int p);
+
+	/**
+	 * Return the number of slots that can be used without growing.
+	 * @return current capacity
+	 */
+	abstract int capacity();
+
+	/**
+	 * Make room for at least this many slots, keeping the slots already used.
+	 * @param minCapacity number of slots needed
+	 */
+	abstract void ensureCapacity(int minCapacity);
+
+	private static boolean report(String s) {
+		if (doReport) System.err.println("Invariant error: " + s);
+		return false;
+	}
+
+	/**
+	 * Check the subtree and return its black height, or -1 if it is out of
+	 * order, has bad parent links, or is not red-black balanced.
+	 * @param n root of subtree (may be NIL)
+	 * @param p expected parent
+	 * @param lo exclusive lower bound on keys, if hasLo
+	 * @param hasLo whether there is a lower bound
+	 * @param hi exclusive upper bound on keys, if hasHi
+	 * @param hasHi whether there is an upper bound
+	 * @return black height of the subtree, or -1 if there is a problem
+	 */
+	private int check(int n, int p, long lo, boolean hasLo, long hi, boolean hasHi) {
+		if (n == NIL) return 0;
+		if (parent(n) != p) return -1;
+		long k = key(n);
+		if (hasLo && k <= lo || hasHi && k >= hi) return -1;
+		if (terrain(n) < 0 || terrain(n) >= TERRAINS.length) return -1;
+		if (red(n) && (isRed(left(n)) || isRed(right(n)))) return -1;
+		int lh = check(left(n), n, lo, hasLo, k, true);
+		int rh = check(right(n), n, k, true, hi, hasHi);
+		if (lh < 0 || lh != rh) return -1;
+		return red(n) ? lh : lh + 1;
+	}
+
+	private int countNodes(int n) {
+		if (n == NIL) return 0;
+		return countNodes(left(n)) + countNodes(right(n)) + 1;
+	}
+
+	private boolean wellFormed() {
+		if (isRed(root)) return report("Root is red.");
+		if (root != NIL && parent(root) != NIL) return report("Root has a parent.");
+		if (check(root, NIL, 0, false, 0, false) < 0)
+			return report("Tree is out of order or not red-black balanced.");
+		int count = countNodes(root);
+		if (size != count)
+			return report(String.format("Size disparity. Field: %d\tMethod: %d", size, count));
+		if (used > capacity()) return report("More slots used than there is room for.");
+		return true;
+	}
+
+	private boolean isRed(int n) {
+		return n != NIL && red(n);
+	}
+
+	/**
+	 * Return the slot holding this key, or NIL if none.
+	 * @param k packed key to look for
+	 * @return slot index, or NIL
+	 */
+	private int find(long k) {
+		int n = root;
+		while (n != NIL) {
+			long nk = key(n);
+			if (k == nk) return n;
+			n = k < nk ? left(n) : right(n);
+		}
+		return NIL;
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null if nothing at this
+	 * coordinate.
+	 * @param c hex coordinate to look for, must not be null
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate c) {
+		assert wellFormed() : "in terrainAt";
+		int n = find(HexKeys.key(c));
+		return n == NIL ? null : TERRAINS[terrain(n)];
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		assert wellFormed() : "in iterator";
+		return new MyIterator();
+	}
+
+	@Override // required by Java
+	public int size() {
+		assert wellFormed() : "in size";
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		assert wellFormed() : "in contains";
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		int n = find(HexKeys.key(tile.getLocation()));
+		return n != NIL && terrain(n) == tile.getTerrain().ordinal();
+	}
+
+	/**
+	 * Remove all the tiles.  The slots are kept for reuse.
+	 */
+	@Override
+	public void clear() {
+		root = NIL;
+		free = NIL;
+		size = 0;
+		used = 0;
+		++version;
+	}
+
+	/**
+	 * Return a slot for a new node, from the free list if possible,
+	 * growing the storage if needed.
+	 * @return index of an unused slot
+	 */
+	private int allocate() {
+		if (free != NIL) {
+			int n = free;
+			free = left(n);
+			return n;
+		}
+		if (used == capacity()) {
+			if (used == Integer.MAX_VALUE) throw new IllegalStateException("board is full");
+			ensureCapacity(used + 1);
+		}
+		return used++;
+	}
+
+	private void rotateLeft(int n) {
+		int r = right(n);
+		int rl = left(r);
+		setRight(n, rl);
+		if (rl != NIL) setParent(rl, n);
+		replaceChild(n, r);
+		setLeft(r, n);
+		setParent(n, r);
+	}
+
+	private void rotateRight(int n) {
+		int l = left(n);
+		int lr = right(l);
+		setLeft(n, lr);
+		if (lr != NIL) setParent(lr, n);
+		replaceChild(n, l);
+		setRight(l, n);
+		setParent(n, l);
+	}
+
+	private void replaceChild(int n, int r) {
+		int p = parent(n);
+		if (r != NIL) setParent(r, p);
+		if (p == NIL) root = r;
+		else if (left(p) == n) setLeft(p, r);
+		else setRight(p, r);
+	}
+
+	private void fixAfterAdd(int n) {
+		while (isRed(parent(n))) {
+			int p = parent(n);
+			int g = parent(p);
+			if (p == left(g)) {
+				int u = right(g);
+				if (isRed(u)) {
+					setRed(p, false);
+					setRed(u, false);
+					setRed(g, true);
+					n = g;
+				} else {
+					if (n == right(p)) {
+						rotateLeft(p);
+						n = p;
+						p = parent(n);
+					}
+					setRed(p, false);
+					setRed(g, true);
+					rotateRight(g);
+				}
+			} else {
+				int u = left(g);
+				if (isRed(u)) {
+					setRed(p, false);
+					setRed(u, false);
+					setRed(g, true);
+					n = g;
+				} else {
+					if (n == left(p)) {
+						rotateRight(p);
+						n = p;
+						p = parent(n);
+					}
+					setRed(p, false);
+					setRed(g, true);
+					rotateLeft(g);
+				}
+			}
+		}
+		setRed(root, false);
+	}
+
+	/**
+	 * Add the tile, or change the terrain if there is already a tile at
+	 * its location.
+	 * @param t tile to add, must not be null
+	 * @return false if the terrain at that location is unchanged
+	 * @throws NullPointerException if the tile is null
+	 */
+	@Override
+	public boolean add(HexTile t) {
+		assert wellFormed() : "in add";
+		if (t == null) throw new NullPointerException("No adding null tiles");
+		long k = HexKeys.key(t.getLocation());
+		byte ter = (byte) t.getTerrain().ordinal();
+		int p = NIL;
+		int n = root;
+		while (n != NIL) {
+			long nk = key(n);
+			if (k == nk) {
+				if (terrain(n) == ter) return false;
+				setTerrain(n, ter);
+				++version;
+				return true;
+			}
+			p = n;
+			n = k < nk ? left(n) : right(n);
+		}
+
+		n = allocate();
+		setKey(n, k);
+		setTerrain(n, ter);
+		setRed(n, true);
+		setLeft(n, NIL);
+		setRight(n, NIL);
+		setParent(n, p);
+		if (p == NIL) root = n;
+		else if (k < key(p)) setLeft(p, n);
+		else setRight(p, n);
+		fixAfterAdd(n);
+		++size;
+		++version;
+		assert wellFormed() : "after add";
+		return true;
+	}
+
+	private void fixAfterRemove(int x) {
+		while (x != root && !red(x)) {
+			int p = parent(x);
+			if (x == left(p)) {
+				int sib = right(p);
+				if (red(sib)) {
+					setRed(sib, false);
+					setRed(p, true);
+					rotateLeft(p);
+					sib = right(p);
+				}
+				if (!isRed(left(sib)) && !isRed(right(sib))) {
+					setRed(sib, true);
+					x = p;
+				} else {
+					if (!isRed(right(sib))) {
+						setRed(left(sib), false);
+						setRed(sib, true);
+						rotateRight(sib);
+						sib = right(p);
+					}
+					setRed(sib, red(p));
+					setRed(p, false);
+					setRed(right(sib), false);
+					rotateLeft(p);
+					x = root;
+				}
+			} else {
+				int sib = left(p);
+				if (red(sib)) {
+					setRed(sib, false);
+					setRed(p, true);
+					rotateRight(p);
+					sib = left(p);
+				}
+				if (!isRed(left(sib)) && !isRed(right(sib))) {
+					setRed(sib, true);
+					x = p;
+				} else {
+					if (!isRed(left(sib))) {
+						setRed(right(sib), false);
+						setRed(sib, true);
+						rotateLeft(sib);
+						sib = left(p);
+					}
+					setRed(sib, red(p));
+					setRed(p, false);
+					setRed(left(sib), false);
+					rotateRight(p);
+					x = root;
+				}
+			}
+		}
+		setRed(x, false);
+	}
+
+	/**
+	 * Remove the contents of this slot from the tree.  If it has two children,
+	 * the contents of its successor are moved into it and the successor's
+	 * slot is unlinked instead.  The unlinked slot goes on the free list.
+	 * @param n slot in the tree
+	 */
+	private void removeNode(int n) {
+		if (left(n) != NIL && right(n) != NIL) {
+			int s = successor(n);
+			setKey(n, key(s));
+			setTerrain(n, terrain(s));
+			n = s;
+		}
+		int child = left(n) != NIL ? left(n) : right(n);
+		if (child != NIL) {
+			replaceChild(n, child);
+			if (!red(n)) fixAfterRemove(child);
+		} else if (parent(n) == NIL) {
+			root = NIL;
+		} else {
+			if (!red(n)) fixAfterRemove(n);
+			replaceChild(n, NIL);
+		}
+		setLeft(n, free);
+		free = n;
+		--size;
+		++version;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		assert wellFormed() : "in remove";
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		int n = find(HexKeys.key(tile.getLocation()));
+		if (n == NIL || terrain(n) != tile.getTerrain().ordinal()) return false;
+		removeNode(n);
+		assert wellFormed() : "after remove";
+		return true;
+	}
+
+	private int firstNode(int n) {
+		if (n == NIL) return NIL;
+		while (left(n) != NIL) n = left(n);
+		return n;
+	}
+
+	private int successor(int n) {
+		if (right(n) != NIL) return firstNode(right(n));
+		int p = parent(n);
+		while (p != NIL && n == right(p)) {
+			n = p;
+			p = parent(p);
+		}
+		return p;
+	}
+
+	private class MyIterator implements Iterator<HexTile> {
+		private int myVersion = version;
+		private int next = firstNode(root);
+		private int current = NIL; // last returned, if it can be removed
+
+		@Override // required by Java
+		public boolean hasNext() {
+			checkStale();
+			return next != NIL;
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			if (!hasNext()) throw new NoSuchElementException("Iterator exhausted");
+			current = next;
+			next = successor(current);
+			return new HexTile(TERRAINS[terrain(current)], HexKeys.toCoordinate(key(current)));
+		}
+
+		@Override // implementation
+		public void remove() {
+			checkStale();
+			if (current == NIL) throw new IllegalStateException("Nothing to remove");
+			// the successor's contents will be moved into current
+			if (left(current) != NIL && right(current) != NIL) next = current;
+			removeNode(current);
+			current = NIL;
+			myVersion = version;
+		}
+
+		private void checkStale() {
+			if (myVersion != version) throw new ConcurrentModificationException("This iterator is stale.");
+		}
+	}
+}
@@ -0,0 +1,452 @@
+package edu.uwm.cs351;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * A {@link HexBoard} that may be shared between threads, for boards that
+ * are read far more than they are written.  Writers take a
+ * {@link StampedLock}'s write lock.  {@link #terrainAt(HexCoordinate)},
+ * {@link #contains(Object)}, {@link #size()} and {@link #countOf(Terrain)}
+ * first read without locking at all, and then check that no writer got in
+ * meanwhile; only if one did do they read again under the read lock.
+ * Readers therefore do not write to any shared memory, which is what
+ * limits a read-write lock on many cores.  The rest of the board's
+ * operations are passed on under the read or write lock.
+ * <p>
+ * Iterators, and the ranges and views that a hex board gives live, run
+ * over a copy of the tiles made under the read lock, so they never go
+ * stale.  Removing through the board's own iterator removes the tile
+ * from the board; the ranges and views cannot be changed.
+ */
+public class StampedHexBoard extends AbstractCollection<HexTile> {
+
+	private final HexBoard board;
+	private final StampedLock lock = new StampedLock();
+
+	/**
+	 * Create an empty board.
+	 */
+	public StampedHexBoard() {
+		this(false);
+	}
+
+	/**
+	 * Create an empty board, with or without a terrain index.
+	 * @param indexTerrains whether to keep an index by terrain
+	 * @see HexBoard#HexBoard(boolean)
+	 */
+	public StampedHexBoard(boolean indexTerrains) {
+		board = new HexBoard(indexTerrains);
+	}
+
+	private <T> T read(Supplier<T> op) {
+		long stamp = lock.readLock();
+		try {
+			return op.get();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private <T> T write(Supplier<T> op) {
+		long stamp = lock.writeLock();
+		try {
+			return op.get();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Return a copy of the tiles, made under the read lock.
+	 */
+	private List<HexTile> copy(Iterable<HexTile> tiles) {
+		return read(() -> {
+			List<HexTile> result = new ArrayList<>();
+			for (HexTile t : tiles) result.add(t);
+			return Collections.unmodifiableList(result);
+		});
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null if nothing at this
+	 * coordinate.
+	 * @param c hex coordinate to look for, must not be null
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate c) {
+		if (c == null) throw new NullPointerException("location cannot be null");
+		return terrainAt(c.a(), c.b());
+	}
+
+	/**
+	 * Return the terrain at the location (a,b) or null if nothing there.
+	 * @param a column of the location
+	 * @param b row of the location
+	 * @return terrain at that location, or null if nothing
+	 */
+	public Terrain terrainAt(int a, int b) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				Terrain t = board.terrainAtUnchecked(a, b);
+				if (lock.validate(stamp)) return t;
+			} catch (RuntimeException ex) {
+				// saw the tree in the middle of a change: read again with the lock
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return board.terrainAt(a, b);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof HexTile)) return false;
+		HexTile tile = (HexTile) o;
+		return terrainAt(tile.getLocation()) == tile.getTerrain();
+	}
+
+	@Override // required by Java
+	public int size() {
+		long stamp = lock.tryOptimisticRead();
+		int result = board.sizeUnchecked();
+		if (lock.validate(stamp)) return result;
+		stamp = lock.readLock();
+		try {
+			return board.size();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Return the number of tiles with the given terrain.
+	 * @param t terrain, must not be null
+	 * @return number of tiles with this terrain
+	 */
+	public int countOf(Terrain t) {
+		if (t == null) throw new NullPointerException("terrain cannot be null");
+		long stamp = lock.tryOptimisticRead();
+		int result = board.countOfUnchecked(t);
+		if (lock.validate(stamp)) return result;
+		stamp = lock.readLock();
+		try {
+			return board.countOf(t);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * See {@link HexBoard#terrainHistogram()}.
+	 * @return map from every terrain to its number of tiles
+	 */
+	public Map<Terrain, Integer> terrainHistogram() {
+		return read(board::terrainHistogram);
+	}
+
+	/**
+	 * Return whether this board keeps an index by terrain.
+	 * @return whether it was created with a terrain index
+	 */
+	public boolean isTerrainIndexed() {
+		return board.isTerrainIndexed();
+	}
+
+	/**
+	 * Return the first tile in row-major order, under the read lock.
+	 * @see HexBoard#first()
+	 */
+	public HexTile first() {
+		return read(board::first);
+	}
+
+	/**
+	 * Return the last tile in row-major order, under the read lock.
+	 * @see HexBoard#last()
+	 */
+	public HexTile last() {
+		return read(board::last);
+	}
+
+	/**
+	 * Return the tile at or before h, under the read lock.
+	 * @see HexBoard#floor(HexCoordinate)
+	 */
+	public HexTile floor(HexCoordinate h) {
+		return read(() -> board.floor(h));
+	}
+
+	/**
+	 * Return the tile at or after h, under the read lock.
+	 * @see HexBoard#ceiling(HexCoordinate)
+	 */
+	public HexTile ceiling(HexCoordinate h) {
+		return read(() -> board.ceiling(h));
+	}
+
+	/**
+	 * Return the tile strictly after h, under the read lock.
+	 * @see HexBoard#higher(HexCoordinate)
+	 */
+	public HexTile higher(HexCoordinate h) {
+		return read(() -> board.higher(h));
+	}
+
+	/**
+	 * Return the tile strictly before h, under the read lock.
+	 * @see HexBoard#lower(HexCoordinate)
+	 */
+	public HexTile lower(HexCoordinate h) {
+		return read(() -> board.lower(h));
+	}
+
+	/**
+	 * Return the tile at an index in row-major order, under the read lock.
+	 * @see HexBoard#get(int)
+	 */
+	public HexTile get(int index) {
+		return read(() -> board.get(index));
+	}
+
+	/**
+	 * Return the number of tiles before h, under the read lock.
+	 * @see HexBoard#rankOf(HexCoordinate)
+	 */
+	public int rankOf(HexCoordinate h) {
+		return read(() -> board.rankOf(h));
+	}
+
+	/**
+	 * Remove and return the first tile, under the write lock.
+	 * @see HexBoard#pollFirst()
+	 */
+	public HexTile pollFirst() {
+		return write(board::pollFirst);
+	}
+
+	/**
+	 * Remove and return the last tile, under the write lock.
+	 * @see HexBoard#pollLast()
+	 */
+	public HexTile pollLast() {
+		return write(board::pollLast);
+	}
+
+	/**
+	 * Return a copy of the tiles in a row.
+	 * @see HexBoard#tilesInRow(int)
+	 */
+	public List<HexTile> tilesInRow(int b) {
+		return copy(board.tilesInRow(b));
+	}
+
+	/**
+	 * Return a copy of the tiles from one location to another.
+	 * @see HexBoard#tilesInRange(HexCoordinate, HexCoordinate)
+	 */
+	public List<HexTile> tilesInRange(HexCoordinate from, HexCoordinate to) {
+		return copy(board.tilesInRange(from, to));
+	}
+
+	/**
+	 * Return a copy of the tiles in a rectangle.
+	 * @see HexBoard#tilesInRect(int, int, int, int)
+	 */
+	public List<HexTile> tilesInRect(int aMin, int aMax, int bMin, int bMax) {
+		return copy(board.tilesInRect(aMin, aMax, bMin, bMax));
+	}
+
+	/**
+	 * Return a copy of the tiles within a distance of a center.
+	 * @see HexBoard#tilesWithin(HexCoordinate, int)
+	 */
+	public List<HexTile> tilesWithin(HexCoordinate center, int radius) {
+		return copy(board.tilesWithin(center, radius));
+	}
+
+	/**
+	 * Return a copy of the tiles with a terrain.
+	 * @see HexBoard#tilesOf(Terrain)
+	 */
+	public List<HexTile> tilesOf(Terrain t) {
+		return copy(board.tilesOf(t));
+	}
+
+	/**
+	 * Return a copy of the tiles with a terrain in a range.
+	 * @see HexBoard#tilesOf(Terrain, HexCoordinate, HexCoordinate)
+	 */
+	public List<HexTile> tilesOf(Terrain t, HexCoordinate from, HexCoordinate to) {
+		return copy(board.tilesOf(t, from, to));
+	}
+
+	/**
+	 * Return a copy of the tiles before a location.
+	 * @see HexBoard#headBoard(HexCoordinate)
+	 */
+	public List<HexTile> headBoard(HexCoordinate to) {
+		return copy(board.headBoard(to));
+	}
+
+	/**
+	 * Return a copy of the tiles from a location on.
+	 * @see HexBoard#tailBoard(HexCoordinate)
+	 */
+	public List<HexTile> tailBoard(HexCoordinate from) {
+		return copy(board.tailBoard(from));
+	}
+
+	/**
+	 * Return a copy of the tiles from one location (included) to another (not).
+	 * @see HexBoard#subBoard(HexCoordinate, HexCoordinate)
+	 */
+	public List<HexTile> subBoard(HexCoordinate from, HexCoordinate to) {
+		return copy(board.subBoard(from, to));
+	}
+
+	/**
+	 * Hand each tile within the given distance of a center to a visitor,
+	 * under the read lock.  The visitor must not change the board, or it
+	 * will wait for itself for ever.
+	 * @param center center of the hexagon, must not be null
+	 * @param radius greatest distance from the center, must not be negative
+	 * @param v visitor to give tiles to, must not be null
+	 * @return number of tiles visited
+	 * @see HexBoard#forEachWithin(HexCoordinate, int, TileVisitor)
+	 */
+	public int forEachWithin(HexCoordinate center, int radius, TileVisitor v) {
+		return read(() -> board.forEachWithin(center, radius, v));
+	}
+
+	@Override
+	public boolean add(HexTile t) {
+		return write(() -> board.add(t));
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends HexTile> c) {
+		if (c == this) return false;
+		return write(() -> board.addAll(c));
+	}
+
+	/**
+	 * See {@link HexBoard#applyBatch(Collection)}.
+	 * @param c tiles to add, must not be null or contain null
+	 * @return how many tiles were inserted and how many updated
+	 */
+	public HexBoard.BatchResult applyBatch(Collection<? extends HexTile> c) {
+		if (c == this) return write(() -> board.applyBatch(board));
+		return write(() -> board.applyBatch(c));
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return write(() -> board.remove(o));
+	}
+
+	@Override
+	public void clear() {
+		write(() -> {
+			board.clear();
+			return null;
+		});
+	}
+
+	/**
+	 * Return a publisher of the changes made to this board.  Unlike a
+	 * plain hex board, this one may be read from the delivery threads.
+	 * @return publisher of changes to this board
+	 * @see HexBoard#changes()
+	 */
+	public Flow.Publisher<TileChange> changes() {
+		return write(board::changes);
+	}
+
+	/**
+	 * See {@link HexBoard#changes(Executor, int)}.
+	 * @param executor where to run deliveries, must not be null
+	 * @param capacity most locations to buffer for each subscriber
+	 * @return publisher of changes to this board
+	 */
+	public Flow.Publisher<TileChange> changes(Executor executor, int capacity) {
+		return write(() -> board.changes(executor, capacity));
+	}
+
+	/**
+	 * Write a binary snapshot of this board under the read lock.
+	 * @param out channel to write to, must not be null
+	 * @throws IOException if the channel cannot be written
+	 * @see HexBoard#writeTo(WritableByteChannel)
+	 */
+	public void writeTo(WritableByteChannel out) throws IOException {
+		long stamp = lock.readLock();
+		try {
+			board.writeTo(out);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Replace the contents of this board with a binary snapshot, under
+	 * the write lock.
+	 * @param in channel to read from, must not be null
+	 * @throws IOException if the channel cannot be read
+	 * @see HexBoard#readFrom(ReadableByteChannel)
+	 */
+	public void readFrom(ReadableByteChannel in) throws IOException {
+		long stamp = lock.writeLock();
+		try {
+			board.readFrom(in);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		HexTile[] tiles = read(() -> board.toArray(new HexTile[board.size()]));
+		return new Iterator<HexTile>() {
+			private int next = 0;
+			private boolean canRemove = false;
+
+			@Override // required by Java
+			public boolean hasNext() {
+				return next < tiles.length;
+			}
+
+			@Override // required by Java
+			public HexTile next() {
+				if (!hasNext()) throw new NoSuchElementException("Iterator exhausted");
+				canRemove = true;
+				return tiles[next++];
+			}
+
+			@Override // implementation
+			public void remove() {
+				if (!canRemove) throw new IllegalStateException("Nothing to remove");
+				StampedHexBoard.this.remove(tiles[next-1]);
+				canRemove = false;
+			}
+		};
+	}
+}
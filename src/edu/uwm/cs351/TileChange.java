@@ -0,0 +1,93 @@
+package edu.uwm.cs351;
+
+import java.util.Objects;
+
+/**
+ * A change to the terrain at one location of a board: a tile added (no
+ * old terrain), removed (no new terrain) or given a new terrain.  A
+ * special "reset" change, with no location at all, means that too much
+ * changed to describe one location at a time, and that whoever is
+ * following the changes should look at the whole board again.
+ */
+public final class TileChange {
+
+	private static final TileChange RESET = new TileChange();
+
+	private final HexCoordinate location;
+	private final Terrain oldTerrain, newTerrain;
+
+	/**
+	 * Create a change record.
+	 * @param location where the change happened, must not be null
+	 * @param oldTerrain terrain before, or null if there was no tile
+	 * @param newTerrain terrain after, or null if the tile was removed
+	 */
+	public TileChange(HexCoordinate location, Terrain oldTerrain, Terrain newTerrain) {
+		this.location = Objects.requireNonNull(location, "location cannot be null");
+		this.oldTerrain = oldTerrain;
+		this.newTerrain = newTerrain;
+	}
+
+	private TileChange() {
+		location = null;
+		oldTerrain = newTerrain = null;
+	}
+
+	/**
+	 * Return the change that means "look at the whole board again".
+	 * @return the reset change
+	 */
+	public static TileChange reset() {
+		return RESET;
+	}
+
+	/**
+	 * Return whether this is the reset change, which has no location.
+	 * @return whether the whole board should be looked at again
+	 */
+	public boolean isReset() {
+		return location == null;
+	}
+
+	/**
+	 * Return the location that changed.
+	 * @return location, or null for the reset change
+	 */
+	public HexCoordinate getLocation() {
+		return location;
+	}
+
+	/**
+	 * Return the terrain before the change.
+	 * @return old terrain, or null if there was no tile here
+	 */
+	public Terrain getOldTerrain() {
+		return oldTerrain;
+	}
+
+	/**
+	 * Return the terrain after the change.
+	 * @return new terrain, or null if the tile was removed
+	 */
+	public Terrain getNewTerrain() {
+		return newTerrain;
+	}
+
+	@Override // implementation
+	public boolean equals(Object x) {
+		if (!(x instanceof TileChange)) return false;
+		TileChange other = (TileChange) x;
+		return Objects.equals(location, other.location) && oldTerrain == other.oldTerrain && newTerrain == other.newTerrain;
+	}
+
+	@Override // implementation
+	public int hashCode() {
+		return Objects.hash(location, oldTerrain, newTerrain);
+	}
+
+	@Override // implementation
+	public String toString() {
+		if (isReset()) return "RESET";
+		return location + ": " + oldTerrain + " -> " + newTerrain;
+	}
+}
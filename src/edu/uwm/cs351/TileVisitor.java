@@ -0,0 +1,16 @@
+package edu.uwm.cs351;
+
+/**
+ * Something that is given tiles one at a time as plain values, so that
+ * no hex tile or hex coordinate needs to be created for each.
+ */
+@FunctionalInterface
+public interface TileVisitor {
+	/**
+	 * Handle one tile.
+	 * @param a first coordinate of the tile's location
+	 * @param b second coordinate of the tile's location
+	 * @param terrain terrain of the tile, never null
+	 */
+	void visit(int a, int b, Terrain terrain);
+}